@@ -0,0 +1,95 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Random;
+
+
+/**
+ * An in-process benchmark of the compression of the online list (the biggest response, broadcast on every join
+ * and leave), comparing its plain length with the block sent by the FrameCompressor and timing the compression
+ * of a broadcast (deflated once on its own), of a response on the client's stream and of re-sending a broadcast
+ * which has already been deflated for another recipient.
+ * Usage: java CompressionBenchmark [number of iterations]
+ */
+public class CompressionBenchmark {
+	private static final String[] FIRST_NAMES = {"adrian", "kasia", "tom", "anna", "michael", "sarah", "john", "marta", "peter", "lucy"};
+
+	//A channel dropping the written blocks, so that only the compression is timed
+	private static WritableByteChannel nullChannel = new WritableByteChannel() {
+		public int write(ByteBuffer source) {
+			int count = source.remaining();
+			source.position(source.limit());
+			return count;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		BufferPool pool = new BufferPool();
+		Random random = new Random(1);
+
+		System.out.printf("%6s %9s %9s %6s %12s %12s %12s%n", "users", "plain B", "sent B", "ratio", "broadcast us", "stream us", "re-send us");
+		int[] usersCounts = {10, 50, 200, 1000, 5000};
+		for (int u = 0; u < usersCounts.length; u++) {
+			ArrayList<String> names = new ArrayList<String>();
+			for (int i = 0; i < usersCounts[u]; i++) {
+				names.add(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + (random.nextInt(9000) + 100));
+			}
+			FrameCompressor broadcastCompressor = new FrameCompressor(256);
+			FrameCompressor streamCompressor = new FrameCompressor(256);
+			long broadcastNanos = 0;
+			long streamNanos = 0;
+			long resendNanos = 0;
+			//The first half of the iterations warms up the compilers
+			for (int i = 0; i < iterations * 2; i++) {
+				Frame broadcast = onlineList(pool.acquireBroadcastFrame(), names);
+				Frame single = onlineList(pool.acquireFrame(), names);
+				long start = System.nanoTime();
+				broadcastCompressor.write(broadcast, nullChannel);
+				long broadcastEnd = System.nanoTime();
+				streamCompressor.write(single, nullChannel);
+				long streamEnd = System.nanoTime();
+				streamCompressor.write(broadcast, nullChannel);
+				long resendEnd = System.nanoTime();
+				if (i >= iterations) {
+					broadcastNanos += broadcastEnd - start;
+					streamNanos += streamEnd - broadcastEnd;
+					resendNanos += resendEnd - streamEnd;
+				}
+				broadcast.release();
+				single.release();
+			}
+			long plainBytes = broadcastCompressor.getUncompressedBytes() / (iterations * 2);
+			long sentBytes = broadcastCompressor.getWrittenBytes() / (iterations * 2);
+			System.out.printf("%6d %9d %9d %6.2f %12.1f %12.1f %12.2f%n", usersCounts[u], plainBytes, sentBytes, (double) sentBytes / plainBytes,
+					broadcastNanos / 1000.0 / iterations, streamNanos / 1000.0 / iterations, resendNanos / 1000.0 / iterations);
+			broadcastCompressor.end();
+			streamCompressor.end();
+		}
+		System.out.println("compression statistics: " + FrameCompressor.getStatistics());
+	}
+
+	/**
+	 * A method for encoding the online list response, the same as ServerThread.updateOnlineList() does.
+	 * @param frame - The empty frame.
+	 * @param names - The users names.
+	 * @return - Returns the frame.
+	 */
+	private static Frame onlineList(Frame frame, ArrayList<String> names) {
+		frame.appendLine("online list updated").append("[");
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				frame.append(", ");
+			}
+			frame.append(names.get(i));
+		}
+		return frame.appendLine("]");
+	}
+}
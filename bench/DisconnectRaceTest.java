@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+
+/**
+ * An in-process test of the races between disconnectUser() and the broadcasts, driving the ServerThreads through
+ * InMemoryTransports. In each round half of the users disconnect while the other half send chat room messages
+ * at the same time. Once the round has settled the users names and the transports of ServerMain have to match,
+ * every remaining user has to be told the final online list and no server thread may have failed.
+ * The test waits on the transports (for the next line sent or for their closure) instead of sleeping, and each
+ * round starts from an empty server, so that a failed round doesn't fail the following ones.
+ * Usage: java DisconnectRaceTest [number of rounds] [number of users]
+ * The exit status is 0 if all the rounds passed.
+ */
+public class DisconnectRaceTest {
+	//The longest time to wait for the server, only reached if the round fails
+	private static final long TIMEOUT_MILLIS = 10000;
+	private static Vector<Throwable> failures = new Vector<Throwable>();
+
+	public static void main(String[] args) throws InterruptedException {
+		//The server messages area is created without a window
+		System.setProperty("java.awt.headless", "true");
+		int roundsCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int usersCount = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread thread, Throwable e) {
+				failures.add(e);
+				e.printStackTrace();
+			}
+		});
+
+		int failedRounds = 0;
+		for (int round = 0; round < roundsCount; round++) {
+			resetServer();
+			String problem = runRound(round, usersCount);
+			if (problem == null && !failures.isEmpty()) {
+				problem = failures.size() + " server threads failed, e.g. " + failures.get(0);
+			}
+			failures.clear();
+			if (problem != null) {
+				failedRounds++;
+				System.out.println("round " + round + " FAILED: " + problem);
+			}
+		}
+		System.out.println(failedRounds == 0 ? "PASSED " + roundsCount + " rounds" : "FAILED " + failedRounds + " of " + roundsCount + " rounds");
+		System.exit(failedRounds == 0 ? 0 : 1);
+	}
+
+	/**
+	 * A method for running a round of the test, leaving the server without users if it passes.
+	 * @param round - The number of the round, used in the users names.
+	 * @param usersCount - The number of the users joining.
+	 * @return - Returns the description of the problem found, or null if the round passed.
+	 */
+	private static String runRound(int round, int usersCount) throws InterruptedException {
+		HashMap<InMemoryTransport, String> names = new HashMap<InMemoryTransport, String>();
+		ArrayList<InMemoryTransport> transports = new ArrayList<InMemoryTransport>();
+		ArrayList<String> allNames = new ArrayList<String>();
+		for (int i = 0; i < usersCount; i++) {
+			InMemoryTransport transport = new InMemoryTransport(true);
+			String name = "round" + round + "user" + i;
+			transport.receive(name);
+			ServerMain.addUser(transport);
+			names.put(transport, name);
+			transports.add(transport);
+			allNames.add(name);
+		}
+		//Wait until every user has been told about all the users
+		for (int i = 0; i < usersCount; i++) {
+			if (!waitForRoster(transports.get(i), allNames.toString())) {
+				return "user" + i + " has not been sent the online list " + allNames;
+			}
+		}
+
+		//The odd users disconnect while the even ones send messages
+		ArrayList<String> remainingNames = new ArrayList<String>();
+		for (int i = 0; i < usersCount; i++) {
+			if (i % 2 == 1) {
+				transports.get(i).receive("disconnect");
+			} else {
+				remainingNames.add(names.get(transports.get(i)));
+				for (int j = 0; j < 5; j++) {
+					transports.get(i).receive("chat room message");
+					transports.get(i).receive("message " + j);
+				}
+			}
+		}
+		for (int i = 1; i < usersCount; i += 2) {
+			if (!transports.get(i).awaitClosed(TIMEOUT_MILLIS)) {
+				return "user" + i + " has not been disconnected";
+			}
+		}
+		//The online list only shrinks in this part of the round, so the expected one is sent once all the odd users are gone
+		String expectedRoster = remainingNames.toString();
+		for (int i = 0; i < usersCount; i += 2) {
+			if (!waitForRoster(transports.get(i), expectedRoster)) {
+				return "user" + i + " has not been sent the online list " + expectedRoster;
+			}
+		}
+
+		ArrayList<String> userNames = new ArrayList<String>();
+		ArrayList<Transport> userTransports = ServerMain.copyUsers(userNames);
+		if (!userNames.equals(remainingNames)) {
+			return "the online users are " + userNames + " instead of " + remainingNames;
+		}
+		for (int i = 0; i < userTransports.size(); i++) {
+			if (!userNames.get(i).equals(names.get(userTransports.get(i)))) {
+				return "the transport at " + i + " is not the transport of " + userNames.get(i);
+			}
+		}
+
+		//Leave the server empty for the next round
+		for (int i = 0; i < usersCount; i += 2) {
+			transports.get(i).receive("disconnect");
+		}
+		for (int i = 0; i < usersCount; i += 2) {
+			if (!transports.get(i).awaitClosed(TIMEOUT_MILLIS)) {
+				return "user" + i + " has not been disconnected at the end of the round";
+			}
+		}
+		if (ServerMain.getUsersCount() != 0) {
+			return ServerMain.getUsersCount() + " users are still online at the end of the round";
+		}
+		return null;
+	}
+
+	/**
+	 * A method for closing the users left by a failed round and emptying the array lists of ServerMain.
+	 */
+	private static void resetServer() {
+		ArrayList<String> userNames = new ArrayList<String>();
+		ArrayList<Transport> transports;
+		synchronized (ServerMain.usersNamesArrayList) {
+			transports = ServerMain.copyUsers(userNames);
+			ServerMain.usersNamesArrayList.clear();
+			ServerMain.transportsArrayList.clear();
+		}
+		for (int i = 0; i < transports.size(); i++) {
+			((InMemoryTransport) transports.get(i)).close();
+		}
+		synchronized (ServerMain.privateChatPartners) {
+			ServerMain.privateChatPartners.clear();
+		}
+	}
+
+	/**
+	 * A method for waiting until the expected online list is sent to a user.
+	 * @param transport - The transport of the user.
+	 * @param expectedRoster - The online list expected, in the format of the "online list updated" response.
+	 * @return - Returns true if the online list was sent before the timeout.
+	 */
+	private static boolean waitForRoster(InMemoryTransport transport, String expectedRoster) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		boolean rosterFollows = false;
+		while (true) {
+			String line = transport.takeSentLine(deadline - System.currentTimeMillis());
+			if (line == null) {
+				return false;
+			}
+			if (rosterFollows && line.equals(expectedRoster)) {
+				return true;
+			}
+			rosterFollows = !rosterFollows && line.equals("online list updated");
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * An in-process test of the flood protection, driving a ServerThread through an InMemoryTransport. A user sends
+ * chat room messages back to back and gets either its own message back (the message has been broadcast) or the
+ * warning that it has been dropped. Only the burst of the roomMessagesLimit (plus the tokens refilled while the
+ * test runs) may be broadcast, every other message has to be warned about, and the skipped arguments of the
+ * dropped messages must not be taken for requests.
+ * Usage: java FloodProtectionTest [number of messages]
+ * The exit status is 0 if the test passed.
+ */
+public class FloodProtectionTest {
+	//The roomMessagesLimit of ServerMain, i.e. the burst of the messages and the messages allowed per second
+	private static final int BURST = 10;
+	private static final int MESSAGES_PER_SECOND = 5;
+	private static final String WARNING = "You are sending too many requests, your request has been dropped.";
+	//The longest time to wait for a response, only reached if the test fails
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	public static void main(String[] args) throws InterruptedException {
+		//The server messages area is created without a window
+		System.setProperty("java.awt.headless", "true");
+		int messagesCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+		InMemoryTransport transport = new InMemoryTransport(true);
+		transport.receive("flooder");
+		ServerMain.addUser(transport);
+		//Skip the announcement and the online list of the join
+		for (int i = 0; i < 4; i++) {
+			transport.takeSentLine(TIMEOUT_MILLIS);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < messagesCount; i++) {
+			transport.receive("chat room message");
+			transport.receive("message " + i);
+		}
+		//Each message is answered with exactly one chat room message response
+		int broadcastsCount = 0;
+		int warningsCount = 0;
+		String problem = null;
+		for (int i = 0; i < messagesCount && problem == null; i++) {
+			String type = transport.takeSentLine(TIMEOUT_MILLIS);
+			String text = transport.takeSentLine(TIMEOUT_MILLIS);
+			if (type == null || text == null) {
+				problem = "only " + i + " of the " + messagesCount + " messages have been answered";
+			} else if (!type.equals("chat room message response")) {
+				problem = "unexpected response " + type + ": " + text;
+			} else if (text.startsWith("You said: message ")) {
+				broadcastsCount++;
+			} else if (text.equals(WARNING)) {
+				warningsCount++;
+			} else {
+				problem = "unexpected chat room message " + text;
+			}
+		}
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		//The bucket refills while the messages are being dispatched, so a slow run may broadcast a few more
+		int maximumBroadcastsCount = BURST + (int) (elapsedMillis * MESSAGES_PER_SECOND / 1000) + 1;
+
+		if (problem == null && (broadcastsCount < Math.min(BURST, messagesCount) || broadcastsCount > maximumBroadcastsCount)) {
+			problem = broadcastsCount + " messages have been broadcast, expected " + BURST + " to " + maximumBroadcastsCount;
+		}
+		if (problem == null && broadcastsCount + warningsCount != messagesCount) {
+			problem = broadcastsCount + " broadcasts and " + warningsCount + " warnings for " + messagesCount + " messages";
+		}
+		System.out.println("messages: " + messagesCount + ", broadcast: " + broadcastsCount + ", warned: " + warningsCount + " in " + elapsedMillis + " ms");
+		System.out.println(problem == null ? "PASSED" : "FAILED: " + problem);
+		System.exit(problem == null ? 0 : 1);
+	}
+}
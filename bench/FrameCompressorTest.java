@@ -0,0 +1,138 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * A round trip test of the FrameCompressor. Random responses (short ones sent as RAW blocks, single long ones
+ * deflated on the STREAM of each client and long broadcasts deflated once as MESSAGE blocks) are written to the
+ * compressed streams of two clients, which are then inflated the way a client does: all the STREAM blocks with one
+ * Inflater and each MESSAGE block on its own. Both streams have to match the responses, and both clients have to
+ * be sent the same MESSAGE block for each broadcast.
+ * Usage: java FrameCompressorTest [number of responses]
+ * The exit status is 0 if the test passed.
+ */
+public class FrameCompressorTest {
+	private static final int THRESHOLD = 256;
+
+	public static void main(String[] args) throws Exception {
+		int responsesCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		BufferPool pool = new BufferPool();
+		Random random = new Random(1);
+		FrameCompressor firstCompressor = new FrameCompressor(THRESHOLD);
+		FrameCompressor secondCompressor = new FrameCompressor(THRESHOLD);
+		ByteArrayOutputStream firstStream = new ByteArrayOutputStream();
+		ByteArrayOutputStream secondStream = new ByteArrayOutputStream();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+		for (int i = 0; i < responsesCount; i++) {
+			Frame frame = random.nextBoolean() ? pool.acquireBroadcastFrame() : pool.acquireFrame();
+			//Mostly responses around the threshold, and a few big ones (e.g. the online list of many users)
+			int length = random.nextInt(10) == 0 ? random.nextInt(50000) : random.nextInt(THRESHOLD * 2);
+			frame.appendLine("chat room message response").appendLine(randomText(random, length));
+			byte[] bytes = new byte[frame.length()];
+			frame.copyTo(bytes, 0);
+			expected.write(bytes);
+			firstCompressor.write(frame, Channels.newChannel(firstStream));
+			secondCompressor.write(frame, Channels.newChannel(secondStream));
+			frame.release();
+		}
+		firstCompressor.end();
+		secondCompressor.end();
+
+		int[] firstKinds = new int[3];
+		int[] secondKinds = new int[3];
+		byte[] firstOutput = inflate(firstStream.toByteArray(), firstKinds);
+		byte[] secondOutput = inflate(secondStream.toByteArray(), secondKinds);
+		String problem = null;
+		if (!Arrays.equals(firstOutput, expected.toByteArray())) {
+			problem = "the first stream doesn't match the responses";
+		} else if (!Arrays.equals(secondOutput, expected.toByteArray())) {
+			problem = "the second stream doesn't match the responses";
+		} else if (firstKinds[FrameCompressor.RAW] == 0 || firstKinds[FrameCompressor.STREAM] == 0 || firstKinds[FrameCompressor.MESSAGE] == 0) {
+			problem = "not all the kinds of the blocks have been sent";
+		} else if (!Arrays.equals(firstKinds, secondKinds) || !Arrays.equals(messageBlocks(firstStream.toByteArray()), messageBlocks(secondStream.toByteArray()))) {
+			problem = "the clients have been sent different MESSAGE blocks";
+		}
+		System.out.println("blocks: " + firstKinds[FrameCompressor.RAW] + " raw, " + firstKinds[FrameCompressor.STREAM] + " stream, "
+				+ firstKinds[FrameCompressor.MESSAGE] + " message; " + expected.size() + " bytes sent as " + firstStream.size());
+		System.out.println(problem == null ? "PASSED" : "FAILED: " + problem);
+		System.exit(problem == null ? 0 : 1);
+	}
+
+	/**
+	 * A method for inflating a compressed stream the way a client does.
+	 * @param stream - The blocks written by a FrameCompressor.
+	 * @param kinds - The counts of the blocks of each kind, filled by this method.
+	 * @return - Returns the responses.
+	 * @throws DataFormatException - Throws an exception in case a block couldn't be inflated.
+	 */
+	private static byte[] inflate(byte[] stream, int[] kinds) throws DataFormatException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Inflater streamInflater = new Inflater();
+		Inflater messageInflater = new Inflater();
+		byte[] buffer = new byte[4096];
+		int position = 0;
+		while (position < stream.length) {
+			byte kind = stream[position];
+			int length = readLength(stream, position + 1);
+			position += 5;
+			kinds[kind]++;
+			if (kind == FrameCompressor.RAW) {
+				output.write(stream, position, length);
+			} else {
+				Inflater inflater = kind == FrameCompressor.STREAM ? streamInflater : messageInflater;
+				if (kind == FrameCompressor.MESSAGE) {
+					inflater.reset();
+				}
+				inflater.setInput(stream, position, length);
+				int count;
+				while ((count = inflater.inflate(buffer)) > 0 || !(inflater.needsInput() || inflater.finished())) {
+					output.write(buffer, 0, count);
+				}
+			}
+			position += length;
+		}
+		streamInflater.end();
+		messageInflater.end();
+		return output.toByteArray();
+	}
+
+	/**
+	 * @param stream - The blocks written by a FrameCompressor.
+	 * @return - Returns the MESSAGE blocks of the stream, one after another.
+	 */
+	private static byte[] messageBlocks(byte[] stream) {
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		int position = 0;
+		while (position < stream.length) {
+			int length = readLength(stream, position + 1);
+			if (stream[position] == FrameCompressor.MESSAGE) {
+				blocks.write(stream, position, 5 + length);
+			}
+			position += 5 + length;
+		}
+		return blocks.toByteArray();
+	}
+
+	private static int readLength(byte[] stream, int position) {
+		return (stream[position] & 0xFF) << 24 | (stream[position + 1] & 0xFF) << 16 | (stream[position + 2] & 0xFF) << 8 | (stream[position + 3] & 0xFF);
+	}
+
+	/**
+	 * @param random - The random generator.
+	 * @param length - The number of characters.
+	 * @return - Returns a text of words, so that it compresses like a chat message.
+	 */
+	private static String randomText(Random random, int length) {
+		String[] words = {"hello", "world", "adrian", "chat", "server", "message", "za\u017c\u00f3\u0142\u0107", "online", "list", "the"};
+		StringBuilder text = new StringBuilder();
+		while (text.length() < length) {
+			text.append(words[random.nextInt(words.length)]).append(random.nextInt(3) == 0 ? random.nextInt(1000) : "").append(' ');
+		}
+		return text.toString();
+	}
+}
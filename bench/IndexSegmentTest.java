@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+
+/**
+ * A test of the IndexSegment against a brute-force index. Segments of random messages (consecutive ranges of ids
+ * with random gaps, so that the differences take one to four bytes) are built and merged the way the ChatHistory
+ * does, each merged segment being checked against the terms of all its messages: getIds and getIdsCount have to
+ * match the ids of each term, and retainIds has to match the intersection of random candidates with them.
+ * Usage: java IndexSegmentTest [number of segments]
+ * The exit status is 0 if the test passed.
+ */
+public class IndexSegmentTest {
+	private static final int TERMS_COUNT = 200;
+
+	public static void main(String[] args) {
+		int segmentsCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		Random random = new Random(1);
+		ArrayList<IndexSegment> segments = new ArrayList<IndexSegment>();
+		//The ids of each term in each segment, merged alongside the segments
+		ArrayList<TreeMap<String, ArrayList<Integer>>> expectedSegments = new ArrayList<TreeMap<String, ArrayList<Integer>>>();
+		int nextId = 0;
+		String problem = null;
+		int checksCount = 0;
+
+		for (int s = 0; s < segmentsCount && problem == null; s++) {
+			TreeMap<String, ArrayList<Integer>> termIds = new TreeMap<String, ArrayList<Integer>>();
+			int messagesCount = 1 + random.nextInt(300);
+			for (int m = 0; m < messagesCount; m++) {
+				//Mostly consecutive ids, with a few gaps as large as the whole id range
+				nextId += random.nextInt(20) == 0 ? 1 + random.nextInt(1 << (7 * (1 + random.nextInt(3)))) : 1;
+				int termsCount = 1 + random.nextInt(8);
+				for (int t = 0; t < termsCount; t++) {
+					//Skewed towards the first terms, like the common words of the messages
+					String term = "term" + (random.nextInt(TERMS_COUNT) * random.nextInt(TERMS_COUNT) / TERMS_COUNT);
+					ArrayList<Integer> ids = termIds.get(term);
+					if (ids == null) {
+						ids = new ArrayList<Integer>();
+						termIds.put(term, ids);
+					}
+					if (ids.isEmpty() || ids.get(ids.size() - 1) != nextId) {
+						ids.add(nextId);
+					}
+				}
+			}
+			segments.add(IndexSegment.build(termIds, messagesCount));
+			expectedSegments.add(termIds);
+			problem = check(segments.get(segments.size() - 1), termIds, random);
+			checksCount++;
+
+			//Merge a random pair of neighbouring segments every other segment, so both small and big segments are merged
+			while (problem == null && segments.size() > 1 && random.nextBoolean()) {
+				int pair = random.nextInt(segments.size() - 1);
+				IndexSegment merged = IndexSegment.merge(segments.get(pair), segments.get(pair + 1));
+				TreeMap<String, ArrayList<Integer>> expected = mergeExpected(expectedSegments.get(pair), expectedSegments.get(pair + 1));
+				if (merged.getMessagesCount() != segments.get(pair).getMessagesCount() + segments.get(pair + 1).getMessagesCount()) {
+					problem = "the merged segment has " + merged.getMessagesCount() + " messages";
+				} else {
+					problem = check(merged, expected, random);
+				}
+				checksCount++;
+				segments.remove(pair + 1);
+				segments.set(pair, merged);
+				expectedSegments.remove(pair + 1);
+				expectedSegments.set(pair, expected);
+			}
+		}
+		System.out.println("segments: " + segmentsCount + " built, " + segments.size() + " left after merging, " + checksCount + " checked, last id " + nextId);
+		System.out.println(problem == null ? "PASSED" : "FAILED: " + problem);
+		System.exit(problem == null ? 0 : 1);
+	}
+
+	/**
+	 * A method for checking a segment against the ids of its terms.
+	 * @param segment - The segment.
+	 * @param termIds - The ids of the messages of each term, in ascending order.
+	 * @param random - The random generator of the candidates.
+	 * @return - Returns the description of the problem found, or null if the check passed.
+	 */
+	private static String check(IndexSegment segment, TreeMap<String, ArrayList<Integer>> termIds, Random random) {
+		//Also look up terms missing from the segment
+		for (int t = 0; t <= TERMS_COUNT; t++) {
+			String term = "term" + t;
+			ArrayList<Integer> expectedList = termIds.get(term);
+			int[] expected = expectedList == null ? new int[0] : toArray(expectedList);
+			if (!Arrays.equals(segment.getIds(term), expected)) {
+				return "the ids of " + term + " don't match";
+			}
+			if (segment.getIdsCount(term) != expected.length) {
+				return "the ids count of " + term + " is " + segment.getIdsCount(term) + " instead of " + expected.length;
+			}
+
+			//Candidates drawn from the ids of another term and from around the ids of this one, as in a search
+			ArrayList<Integer> otherList = termIds.get("term" + random.nextInt(TERMS_COUNT));
+			TreeMap<Integer, Boolean> candidatesSet = new TreeMap<Integer, Boolean>();
+			if (otherList != null) {
+				for (int i = 0; i < otherList.size(); i++) {
+					candidatesSet.put(otherList.get(i), Boolean.TRUE);
+				}
+			}
+			for (int i = 0; i < expected.length; i++) {
+				if (random.nextInt(3) == 0) {
+					candidatesSet.put(expected[i] + random.nextInt(3) - 1, Boolean.TRUE);
+				}
+			}
+			int[] candidates = toArray(new ArrayList<Integer>(candidatesSet.keySet()));
+			HashSet<Integer> expectedSet = new HashSet<Integer>();
+			for (int i = 0; i < expected.length; i++) {
+				expectedSet.add(expected[i]);
+			}
+			ArrayList<Integer> intersection = new ArrayList<Integer>();
+			for (int i = 0; i < candidates.length; i++) {
+				if (expectedSet.contains(candidates[i])) {
+					intersection.add(candidates[i]);
+				}
+			}
+			if (!Arrays.equals(segment.retainIds(term, candidates), toArray(intersection))) {
+				return "the candidates retained for " + term + " don't match the intersection";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param older - The ids of each term of the older segment.
+	 * @param newer - The ids of each term of the newer segment.
+	 * @return - Returns the ids of each term of both segments, in ascending order.
+	 */
+	private static TreeMap<String, ArrayList<Integer>> mergeExpected(TreeMap<String, ArrayList<Integer>> older, TreeMap<String, ArrayList<Integer>> newer) {
+		TreeMap<String, ArrayList<Integer>> merged = new TreeMap<String, ArrayList<Integer>>();
+		Iterator<String> iterator = older.keySet().iterator();
+		while (iterator.hasNext()) {
+			String term = iterator.next();
+			merged.put(term, new ArrayList<Integer>(older.get(term)));
+		}
+		iterator = newer.keySet().iterator();
+		while (iterator.hasNext()) {
+			String term = iterator.next();
+			ArrayList<Integer> ids = merged.get(term);
+			if (ids == null) {
+				ids = new ArrayList<Integer>();
+				merged.put(term, ids);
+			}
+			ids.addAll(newer.get(term));
+		}
+		return merged;
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+
+
+/**
+ * An in-process benchmark of the routing of the server, driving the ServerThreads through InMemoryTransports
+ * instead of sockets. The users join one after another (each join is announced and the online list is sent to
+ * everybody), then all of them send a burst of chat room messages at once, which are delivered to every user.
+ * Usage: java RoutingBenchmark [number of users] [messages per user]
+ * The messages per user should not exceed the burst of the roomMessagesLimit, otherwise they are rate limited.
+ */
+public class RoutingBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		//The server messages area is created without a window
+		System.setProperty("java.awt.headless", "true");
+		int usersCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int messagesPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		ArrayList<InMemoryTransport> transports = new ArrayList<InMemoryTransport>();
+		long joinStart = System.nanoTime();
+		for (int i = 0; i < usersCount; i++) {
+			InMemoryTransport transport = new InMemoryTransport(false);
+			transport.receive("user" + i);
+			ServerMain.addUser(transport);
+			transports.add(transport);
+			//Wait for the announcement and the online list sent to the new user, so the joins don't overlap
+			waitForResponses(transports, i + 1, (long) (i + 1) * (i + 2));
+		}
+		long joinNanos = System.nanoTime() - joinStart;
+		long joinResponses = (long) usersCount * (usersCount + 1);
+
+		long messagesStart = System.nanoTime();
+		for (int i = 0; i < messagesPerUser; i++) {
+			for (int j = 0; j < usersCount; j++) {
+				transports.get(j).receive("chat room message");
+				transports.get(j).receive("message " + i + " from user" + j);
+			}
+		}
+		long deliveries = (long) usersCount * messagesPerUser * usersCount;
+		waitForResponses(transports, usersCount, joinResponses + deliveries);
+		long messagesNanos = System.nanoTime() - messagesStart;
+
+		System.out.printf("joins:      %d users in %.1f ms (%d responses)%n", usersCount, joinNanos / 1e6, joinResponses);
+		System.out.printf("messages:   %d in %.1f ms, %.0f messages/s%n", usersCount * messagesPerUser, messagesNanos / 1e6,
+				usersCount * messagesPerUser / (messagesNanos / 1e9));
+		System.out.printf("deliveries: %d, %.0f deliveries/s%n", deliveries, deliveries / (messagesNanos / 1e9));
+		System.out.println("buffer pool: " + ServerMain.bufferPool);
+		System.exit(0);
+	}
+
+	/**
+	 * A method for waiting until the first users have received the expected number of responses in total.
+	 * @param transports - The transports of the users.
+	 * @param usersCount - The number of the users to count the responses of.
+	 * @param expectedResponses - The number of the responses expected.
+	 * @throws InterruptedException - Throws an exception in case the waiting was interrupted.
+	 */
+	private static void waitForResponses(ArrayList<InMemoryTransport> transports, int usersCount, long expectedResponses) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 60000;
+		while (true) {
+			long responses = 0;
+			for (int i = 0; i < usersCount; i++) {
+				responses += transports.get(i).getSentResponsesCount();
+			}
+			if (responses >= expectedResponses) {
+				return;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException("Only " + responses + " of " + expectedResponses + " responses have been sent");
+			}
+			Thread.sleep(1);
+		}
+	}
+}
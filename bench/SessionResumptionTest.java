@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+
+/**
+ * An in-process test of the session snapshot and the resumption of the sessions after a restart, driving the
+ * server through InMemoryTransports. It checks that a SessionSnapshot written and read back can be claimed once
+ * and only with the token of the user, then shuts the server down with a user whose sends are stuck (which has
+ * to be closed at the shutdown deadline), restarts it and lets two of the users resume their sessions. The names
+ * of the sessions which have not been resumed are kept until the resumption window ends, when their private chats
+ * are closed and the online list is sent to everybody.
+ * Usage: java SessionResumptionTest
+ * The exit status is 0 if the test passed.
+ */
+public class SessionResumptionTest {
+	//The longest time to wait for a response, only reached if the test fails
+	private static final long TIMEOUT_MILLIS = 10000;
+	private static final long SHUTDOWN_DEADLINE_MILLIS = 3000;
+
+	/**
+	 * A transport whose sends block until it is closed once it has been made stuck, like a client that doesn't read.
+	 */
+	private static class StuckTransport extends InMemoryTransport {
+		private volatile boolean stuck = false;
+
+		private StuckTransport() {
+			super(true);
+		}
+
+		@Override
+		public void send(Frame frame) {
+			try {
+				if (stuck) {
+					awaitClosed(Long.MAX_VALUE);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.send(frame);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		//The server messages area is created without a window
+		System.setProperty("java.awt.headless", "true");
+		String problem = checkSnapshot();
+		if (problem == null) {
+			problem = checkRestart();
+		}
+		System.out.println(problem == null ? "PASSED" : "FAILED: " + problem);
+		System.exit(problem == null ? 0 : 1);
+	}
+
+	/**
+	 * A method for checking the writing, reading and claiming of a SessionSnapshot.
+	 * @return - Returns the description of the problem found, or null if the check passed.
+	 */
+	private static String checkSnapshot() throws IOException {
+		SessionSnapshot snapshot = new SessionSnapshot();
+		ArrayList<String> partners = new ArrayList<String>();
+		partners.add("bob");
+		partners.add("carol");
+		SessionSnapshot.Session alice = snapshot.addSession("alice", partners);
+		SessionSnapshot.Session bob = snapshot.addSession("bob", new ArrayList<String>());
+		File file = File.createTempFile("sessions", ".snapshot");
+		file.deleteOnExit();
+		snapshot.write(file);
+		SessionSnapshot readSnapshot = SessionSnapshot.read(file);
+
+		if (readSnapshot.claim(alice.getToken(), "bob") != null) {
+			return "a session has been claimed with the token of another user";
+		}
+		if (!readSnapshot.isReserved("alice", null) || readSnapshot.isReserved("alice", alice.getToken())) {
+			return "the name of an unclaimed session is not kept for its token only";
+		}
+		SessionSnapshot.Session claimed = readSnapshot.claim(alice.getToken(), "alice");
+		if (claimed == null || !claimed.getPrivateChatPartners().equals(partners)) {
+			return "the session read back doesn't have the private chats " + partners;
+		}
+		if (readSnapshot.claim(alice.getToken(), "alice") != null || readSnapshot.isReserved("alice", null)) {
+			return "a session has been claimed twice";
+		}
+		ArrayList<SessionSnapshot.Session> unclaimed = readSnapshot.expire();
+		if (unclaimed.size() != 1 || !unclaimed.get(0).getToken().equals(bob.getToken())) {
+			return "the unclaimed sessions are not only the session of bob";
+		}
+		if (readSnapshot.claim(bob.getToken(), "bob") != null) {
+			return "an expired session has been claimed";
+		}
+		return null;
+	}
+
+	/**
+	 * A method for checking the shutdown, the restart, the resumption and the end of the resumption window.
+	 * @return - Returns the description of the problem found, or null if the check passed.
+	 */
+	private static String checkRestart() throws InterruptedException {
+		InMemoryTransport alice = join("alice");
+		InMemoryTransport bob = join("bob");
+		InMemoryTransport carol = join("carol");
+		StuckTransport dave = new StuckTransport();
+		dave.receive("dave");
+		ServerMain.addUser(dave);
+		if (!waitForLine(dave, "[alice, bob, carol, dave]")) {
+			return "the users have not joined";
+		}
+		//Alice is privately chatting with bob and carol
+		alice.receive("private chat");
+		alice.receive("bob");
+		bob.receive("accept private chat");
+		bob.receive("alice");
+		alice.receive("private chat");
+		alice.receive("carol");
+		carol.receive("accept private chat");
+		carol.receive("alice");
+		if (!waitForLine(bob, "start private chat") || !waitForLine(carol, "start private chat")) {
+			return "the private chats have not been started";
+		}
+
+		//Shut the server down while the sends to dave are stuck
+		dave.stuck = true;
+		long shutdownStart = System.currentTimeMillis();
+		ServerMain.disconnectAllUsersFromServer();
+		long shutdownMillis = System.currentTimeMillis() - shutdownStart;
+		if (!dave.isClosed() || shutdownMillis < SHUTDOWN_DEADLINE_MILLIS || shutdownMillis > SHUTDOWN_DEADLINE_MILLIS + 2000) {
+			return "the stuck user has not been closed at the shutdown deadline, the shutdown took " + shutdownMillis + " ms";
+		}
+		String aliceToken = readToken(alice);
+		String bobToken = readToken(bob);
+		if (aliceToken == null || bobToken == null || readToken(carol) == null) {
+			return "the users have not been sent their resumption tokens";
+		}
+		if (!alice.isClosed() || !bob.isClosed() || !carol.isClosed() || ServerMain.getUsersCount() != 0) {
+			return "the users have not been disconnected";
+		}
+
+		//Restart the server, alice and bob resume their sessions while carol doesn't come back
+		ServerMain.resumptionWindowMillis = 2000;
+		ServerMain.loadSessionSnapshot();
+		InMemoryTransport resumedAlice = join("resume session", aliceToken, "alice");
+		if (!"session resumed".equals(resumedAlice.takeSentLine(TIMEOUT_MILLIS))) {
+			return "alice has not resumed the session";
+		}
+		InMemoryTransport impostor = join("bob");
+		if (!"name already used".equals(impostor.takeSentLine(TIMEOUT_MILLIS))) {
+			return "a new user has taken the name of a session which has not been resumed yet";
+		}
+		InMemoryTransport resumedBob = join("resume session", bobToken, "bob");
+		if (!"session resumed".equals(resumedBob.takeSentLine(TIMEOUT_MILLIS))) {
+			return "bob has not resumed the session";
+		}
+
+		//The end of the resumption window closes the private chat with carol and sends the online list
+		if (!waitForLine(resumedAlice, "close private chat") || !"carol".equals(resumedAlice.takeSentLine(TIMEOUT_MILLIS))) {
+			return "alice has not been told that carol didn't come back";
+		}
+		if (!waitForLine(resumedBob, "[alice, bob]")) {
+			return "the online list has not been sent at the end of the resumption window";
+		}
+		ArrayList<String> alicePartners = ServerMain.getPrivateChatPartners("alice");
+		if (alicePartners.size() != 1 || !alicePartners.get(0).equals("bob")) {
+			return "alice is privately chatting with " + alicePartners + " instead of [bob]";
+		}
+		InMemoryTransport newCarol = join("carol");
+		if (!"chat room message response".equals(newCarol.takeSentLine(TIMEOUT_MILLIS))) {
+			return "the name of carol is still kept after the resumption window";
+		}
+		return null;
+	}
+
+	/**
+	 * A method for connecting a user.
+	 * @param lines - The lines of the handshake, e.g. the username.
+	 * @return - Returns the transport of the user.
+	 */
+	private static InMemoryTransport join(String... lines) {
+		InMemoryTransport transport = new InMemoryTransport(true);
+		for (int i = 0; i < lines.length; i++) {
+			transport.receive(lines[i]);
+		}
+		ServerMain.addUser(transport);
+		return transport;
+	}
+
+	/**
+	 * A method for reading the lines sent to a user until the resumption token.
+	 * @param transport - The transport of the user.
+	 * @return - Returns the token, or null if it has not been sent.
+	 */
+	private static String readToken(InMemoryTransport transport) throws InterruptedException {
+		return waitForLine(transport, "resumption token") ? transport.takeSentLine(TIMEOUT_MILLIS) : null;
+	}
+
+	/**
+	 * A method for reading the lines sent to a user until the expected one.
+	 * @param transport - The transport of the user.
+	 * @param expectedLine - The line expected.
+	 * @return - Returns true if the line was sent before the timeout.
+	 */
+	private static boolean waitForLine(InMemoryTransport transport, String expectedLine) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (true) {
+			String line = transport.takeSentLine(Math.max(0, deadline - System.currentTimeMillis()));
+			if (line == null) {
+				return false;
+			}
+			if (line.equals(expectedLine)) {
+				return true;
+			}
+		}
+	}
+}
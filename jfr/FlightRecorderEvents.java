@@ -0,0 +1,131 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * The Java Flight Recorder events of the server, only used through ServerEvents when the events are enabled.
+ * It requires Java 11 or later, so it is kept in the jfr folder and ServerEvents loads it by its name.
+ * The duration of each event is the time between its begin and end, and the fields are filled only if the
+ * recording keeps the event (i.e. it is enabled and above the threshold of the recording profile).
+ */
+public class FlightRecorderEvents implements ServerEvents.Recorder {
+	public static final String REQUEST_DISPATCH = "chatserver.RequestDispatch";
+	public static final String RECIPIENT_WRITE = "chatserver.RecipientWrite";
+	public static final String HANDSHAKE = "chatserver.Handshake";
+
+	@Name(REQUEST_DISPATCH)
+	@Label("Request Dispatch")
+	@Category("Chat Server")
+	@Description("A request of a user, from reading its request type until it has been dispatched, including the wait for its arguments")
+	@StackTrace(false)
+	static class RequestDispatchEvent extends Event {
+		@Label("Request Type")
+		String requestType;
+
+		@Label("User")
+		String userName;
+
+		@Label("Arguments Wait")
+		@Description("The time spent blocked waiting for the arguments of the request from the client")
+		@Timespan(Timespan.NANOSECONDS)
+		long argumentsWait;
+
+		@Label("Dispatch Time")
+		@Description("The duration of the request without the arguments wait, i.e. the time spent by the server on it")
+		@Timespan(Timespan.NANOSECONDS)
+		long dispatchTime;
+
+		@Label("Rate Limited")
+		boolean rateLimited;
+	}
+
+	@Name(RECIPIENT_WRITE)
+	@Label("Recipient Write")
+	@Category("Chat Server")
+	@Description("A write of a broadcast response to one of its recipients, lasting as long as the send was blocked")
+	@StackTrace(false)
+	static class RecipientWriteEvent extends Event {
+		@Label("Recipient")
+		String recipientName;
+
+		@Label("Bytes")
+		@Description("The length of the response before compression")
+		@DataAmount
+		int bytes;
+	}
+
+	@Name(HANDSHAKE)
+	@Label("Handshake")
+	@Category("Chat Server")
+	@Description("The handshake of a new connection, until the user has been accepted or declined")
+	@StackTrace(false)
+	static class HandshakeEvent extends Event {
+		@Label("User")
+		String userName;
+
+		@Label("Outcome")
+		@Description("The first response sent to the user, e.g. name already used")
+		String outcome;
+
+		@Label("Compressed")
+		boolean compressed;
+	}
+
+	public Object beginRequest() {
+		RequestDispatchEvent event = new RequestDispatchEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endRequest(Object event, String requestType, String userName, long argumentsWaitNanos, long dispatchNanos, boolean rateLimited) {
+		RequestDispatchEvent requestEvent = (RequestDispatchEvent) event;
+		requestEvent.end();
+		if (requestEvent.shouldCommit()) {
+			requestEvent.requestType = requestType;
+			requestEvent.userName = userName;
+			requestEvent.argumentsWait = argumentsWaitNanos;
+			requestEvent.dispatchTime = dispatchNanos;
+			requestEvent.rateLimited = rateLimited;
+			requestEvent.commit();
+		}
+	}
+
+	public Object beginRecipientWrite() {
+		RecipientWriteEvent event = new RecipientWriteEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endRecipientWrite(Object event, String recipientName, int bytes) {
+		RecipientWriteEvent writeEvent = (RecipientWriteEvent) event;
+		writeEvent.end();
+		if (writeEvent.shouldCommit()) {
+			writeEvent.recipientName = recipientName;
+			writeEvent.bytes = bytes;
+			writeEvent.commit();
+		}
+	}
+
+	public Object beginHandshake() {
+		HandshakeEvent event = new HandshakeEvent();
+		event.begin();
+		return event;
+	}
+
+	public void endHandshake(Object event, String userName, String outcome, boolean compressed) {
+		HandshakeEvent handshakeEvent = (HandshakeEvent) event;
+		handshakeEvent.end();
+		if (handshakeEvent.shouldCommit()) {
+			handshakeEvent.userName = userName;
+			handshakeEvent.outcome = outcome;
+			handshakeEvent.compressed = compressed;
+			handshakeEvent.commit();
+		}
+	}
+}
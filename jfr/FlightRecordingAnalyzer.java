@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+
+/**
+ * An offline analyzer of a flight recording of the server (see chat-server.jfc), summarizing the request types
+ * and the recipients with the slowest events, the outcomes of the handshakes and the slowest single requests.
+ * Usage: java FlightRecordingAnalyzer recording.jfr [number of rows]
+ */
+public class FlightRecordingAnalyzer {
+
+	/**
+	 * The summary of the events with the same key, e.g. the same request type.
+	 */
+	private static class Summary {
+		private String key;
+		private long count = 0;
+		private long totalNanos = 0;
+		private long maximumNanos = 0;
+		//The total arguments wait of the requests or the total bytes written to the recipient, depending on the events
+		private long extra = 0;
+		private long rateLimitedCount = 0;
+
+		private Summary(String key) {
+			this.key = key;
+		}
+
+		private void add(long nanos) {
+			count++;
+			totalNanos += nanos;
+			maximumNanos = Math.max(maximumNanos, nanos);
+		}
+	}
+
+	//Sorts the summaries by their slowest event, then by their total time
+	private static final Comparator<Summary> SLOWEST_FIRST = new Comparator<Summary>() {
+		public int compare(Summary first, Summary second) {
+			if (first.maximumNanos != second.maximumNanos) {
+				return first.maximumNanos > second.maximumNanos ? -1 : 1;
+			}
+			return first.totalNanos > second.totalNanos ? -1 : (first.totalNanos == second.totalNanos ? 0 : 1);
+		}
+	};
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: java FlightRecordingAnalyzer recording.jfr [number of rows]");
+			System.exit(1);
+		}
+		int rows = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		HashMap<String, Summary> requestTypes = new HashMap<String, Summary>();
+		HashMap<String, Summary> recipients = new HashMap<String, Summary>();
+		HashMap<String, Summary> handshakes = new HashMap<String, Summary>();
+		ArrayList<RecordedEvent> slowestRequests = new ArrayList<RecordedEvent>();
+
+		RecordingFile recording = new RecordingFile(new File(args[0]).toPath());
+		try {
+			while (recording.hasMoreEvents()) {
+				RecordedEvent event = recording.readEvent();
+				String name = event.getEventType().getName();
+				long nanos = event.getDuration().toNanos();
+				if (name.equals(FlightRecorderEvents.REQUEST_DISPATCH)) {
+					//The requests are compared by their dispatch time, since waiting for the arguments isn't spent by the server
+					Summary summary = summaryOf(requestTypes, event.getString("requestType"));
+					summary.add(event.getDuration("dispatchTime").toNanos());
+					summary.extra += event.getDuration("argumentsWait").toNanos();
+					if (event.getBoolean("rateLimited")) {
+						summary.rateLimitedCount++;
+					}
+					keepSlowest(slowestRequests, event, rows);
+				} else if (name.equals(FlightRecorderEvents.RECIPIENT_WRITE)) {
+					Summary summary = summaryOf(recipients, event.getString("recipientName"));
+					summary.add(nanos);
+					summary.extra += event.getInt("bytes");
+				} else if (name.equals(FlightRecorderEvents.HANDSHAKE)) {
+					summaryOf(handshakes, event.getString("outcome")).add(nanos);
+				}
+			}
+		} finally {
+			recording.close();
+		}
+
+		System.out.println("Request types, slowest first");
+		System.out.printf("%-32s %10s %15s %12s %12s %12s%n", "request type", "count", "avg dispatch ms", "max ms", "avg wait ms", "rate limited");
+		Iterator<Summary> iterator = sorted(requestTypes, rows).iterator();
+		while (iterator.hasNext()) {
+			Summary summary = iterator.next();
+			System.out.printf("%-32s %10d %15.3f %12.3f %12.3f %12d%n", summary.key, summary.count, millis(summary.totalNanos / summary.count),
+					millis(summary.maximumNanos), millis(summary.extra / summary.count), summary.rateLimitedCount);
+		}
+
+		System.out.println();
+		System.out.println("Recipients of the broadcasts, slowest first");
+		System.out.printf("%-32s %10s %12s %12s %12s%n", "recipient", "writes", "blocked ms", "max ms", "bytes");
+		iterator = sorted(recipients, rows).iterator();
+		while (iterator.hasNext()) {
+			Summary summary = iterator.next();
+			System.out.printf("%-32s %10d %12.3f %12.3f %12d%n", summary.key, summary.count, millis(summary.totalNanos),
+					millis(summary.maximumNanos), summary.extra);
+		}
+
+		System.out.println();
+		System.out.println("Handshakes by outcome");
+		System.out.printf("%-32s %10s %12s %12s%n", "outcome", "count", "average ms", "max ms");
+		iterator = sorted(handshakes, handshakes.size()).iterator();
+		while (iterator.hasNext()) {
+			Summary summary = iterator.next();
+			System.out.printf("%-32s %10d %12.3f %12.3f%n", summary.key, summary.count, millis(summary.totalNanos / summary.count),
+					millis(summary.maximumNanos));
+		}
+
+		System.out.println();
+		System.out.println("Slowest requests");
+		System.out.printf("%-30s %-20s %-32s %12s %12s%n", "start", "user", "request type", "dispatch ms", "wait ms");
+		for (int i = 0; i < slowestRequests.size(); i++) {
+			RecordedEvent event = slowestRequests.get(i);
+			System.out.printf("%-30s %-20s %-32s %12.3f %12.3f%n", event.getStartTime(), event.getString("userName"), event.getString("requestType"),
+					millis(event.getDuration("dispatchTime").toNanos()), millis(event.getDuration("argumentsWait").toNanos()));
+		}
+	}
+
+	private static Summary summaryOf(HashMap<String, Summary> summaries, String key) {
+		Summary summary = summaries.get(key);
+		if (summary == null) {
+			summary = new Summary(key);
+			summaries.put(key, summary);
+		}
+		return summary;
+	}
+
+	private static ArrayList<Summary> sorted(HashMap<String, Summary> summaries, int rows) {
+		ArrayList<Summary> list = new ArrayList<Summary>(summaries.values());
+		Collections.sort(list, SLOWEST_FIRST);
+		return new ArrayList<Summary>(list.subList(0, Math.min(rows, list.size())));
+	}
+
+	/**
+	 * A method for keeping the requests with the slowest dispatch, sorted from the slowest.
+	 * @param slowest - The slowest events so far.
+	 * @param event - The next event.
+	 * @param rows - The number of events to keep.
+	 */
+	private static void keepSlowest(ArrayList<RecordedEvent> slowest, RecordedEvent event, int rows) {
+		int index = slowest.size();
+		while (index > 0 && slowest.get(index - 1).getDuration("dispatchTime").compareTo(event.getDuration("dispatchTime")) < 0) {
+			index--;
+		}
+		if (index < rows) {
+			slowest.add(index, event);
+			if (slowest.size() > rows) {
+				slowest.remove(rows);
+			}
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1000000.0;
+	}
+}
@@ -0,0 +1,209 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A pool of direct ByteBuffers (and of the Frames using them) for the outbound responses.
+ * The buffers are kept in size classes, each thread has its own small cache of buffers and frames,
+ * and the buffers overflowing the thread caches are shared with the other threads. In the steady state
+ * a response is encoded into a buffer taken from the cache of the sending thread, so sending does not
+ * allocate anything on the heap. A thread that is about to end has to give its cache to the other threads
+ * with flushThreadCache(), otherwise the cached buffers are lost to the pool.
+ */
+public class BufferPool {
+	//The capacities of the pooled buffers, buffers bigger than the last size class are not pooled
+	private static final int[] SIZE_CLASSES = {256, 1024, 4096, 16384, 65536};
+	//The number of buffers of each size class (and of frames) that a thread keeps for itself
+	private static final int THREAD_CACHE_SIZE = 32;
+
+	private ArrayList<ConcurrentLinkedQueue<ByteBuffer>> sharedBuffers = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>();
+	private ConcurrentLinkedQueue<Frame> sharedFrames = new ConcurrentLinkedQueue<Frame>();
+	private ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			return new ThreadCache();
+		}
+	};
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong outstanding = new AtomicLong();
+
+	/**
+	 * Constructor for the class BufferPool
+	 */
+	public BufferPool() {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			sharedBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+		}
+	}
+
+	/**
+	 * A method for obtaining an empty frame, which has to be released once it is not needed anymore.
+	 * @return - Returns a frame with the reference count of one.
+	 */
+	public Frame acquireFrame() {
+		return acquireFrame(false);
+	}
+
+	/**
+	 * A method for obtaining an empty frame of a response sent to many recipients, so that it can be
+	 * compressed only once for all of them. The frame has to be released once it is not needed anymore.
+	 * @return - Returns a frame with the reference count of one.
+	 */
+	public Frame acquireBroadcastFrame() {
+		return acquireFrame(true);
+	}
+
+	/**
+	 * A method for obtaining an empty frame from the cache of the current thread.
+	 * @param broadcast - Whether the frame is sent to many recipients.
+	 * @return - Returns a frame with the reference count of one.
+	 */
+	private Frame acquireFrame(boolean broadcast) {
+		Frame frame = threadCache.get().frames.poll();
+		if (frame == null) {
+			frame = sharedFrames.poll();
+		}
+		if (frame == null) {
+			frame = new Frame(this);
+		}
+		frame.open(acquireBuffer(SIZE_CLASSES[0]), broadcast);
+		return frame;
+	}
+
+	/**
+	 * A method for returning a released frame to the cache of the current thread.
+	 * @param frame - The frame which has already returned its buffer.
+	 */
+	void recycleFrame(Frame frame) {
+		ArrayDeque<Frame> frames = threadCache.get().frames;
+		if (frames.size() < THREAD_CACHE_SIZE) {
+			frames.push(frame);
+		} else {
+			sharedFrames.offer(frame);
+		}
+	}
+
+	/**
+	 * A method for moving the buffers and frames cached by the current thread to the ones shared by all threads,
+	 * called when the thread is about to end (e.g. the thread of a disconnected user).
+	 */
+	public void flushThreadCache() {
+		ThreadCache cache = threadCache.get();
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			ArrayDeque<ByteBuffer> cachedBuffers = cache.buffers.get(i);
+			ByteBuffer buffer;
+			while ((buffer = cachedBuffers.poll()) != null) {
+				sharedBuffers.get(i).offer(buffer);
+			}
+		}
+		Frame frame;
+		while ((frame = cache.frames.poll()) != null) {
+			sharedFrames.offer(frame);
+		}
+		threadCache.remove();
+	}
+
+	/**
+	 * A method for obtaining a cleared buffer with at least the given capacity.
+	 * @param minimumCapacity - The number of bytes that the buffer has to hold.
+	 * @return - Returns the buffer, which has to be given back with releaseBuffer(...).
+	 */
+	ByteBuffer acquireBuffer(int minimumCapacity) {
+		outstanding.incrementAndGet();
+		int sizeClass = sizeClassOf(minimumCapacity);
+		//If the buffer is too big to be pooled
+		if (sizeClass < 0) {
+			misses.incrementAndGet();
+			return ByteBuffer.allocateDirect(minimumCapacity);
+		}
+		//Try the cache of this thread first, then the buffers shared by all threads
+		ByteBuffer buffer = threadCache.get().buffers.get(sizeClass).poll();
+		if (buffer == null) {
+			buffer = sharedBuffers.get(sizeClass).poll();
+		}
+		if (buffer == null) {
+			misses.incrementAndGet();
+			return ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+		}
+		hits.incrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * A method for giving back a buffer obtained with acquireBuffer(...).
+	 * @param buffer - The buffer which is not used anymore.
+	 */
+	void releaseBuffer(ByteBuffer buffer) {
+		outstanding.decrementAndGet();
+		int sizeClass = sizeClassOf(buffer.capacity());
+		//If the buffer is not of a pooled size leave it for the garbage collector
+		if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity()) {
+			return;
+		}
+		ArrayDeque<ByteBuffer> cachedBuffers = threadCache.get().buffers.get(sizeClass);
+		if (cachedBuffers.size() < THREAD_CACHE_SIZE) {
+			cachedBuffers.push(buffer);
+		} else {
+			sharedBuffers.get(sizeClass).offer(buffer);
+		}
+	}
+
+	/**
+	 * @return - Returns the number of buffers that have been reused from the pool.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return - Returns the number of buffers that had to be allocated.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return - Returns the number of buffers that have been acquired but not released yet.
+	 */
+	public long getOutstanding() {
+		return outstanding.get();
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + getHits() + ", misses: " + getMisses() + ", outstanding: " + getOutstanding();
+	}
+
+	/**
+	 * A method for finding the smallest size class holding the given capacity.
+	 * @param capacity - The number of bytes.
+	 * @return - Returns the index of the size class, or -1 if the capacity is too big to be pooled.
+	 */
+	private static int sizeClassOf(int capacity) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (capacity <= SIZE_CLASSES[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The buffers and frames cached by a single thread.
+	 */
+	private static class ThreadCache {
+		private ArrayList<ArrayDeque<ByteBuffer>> buffers = new ArrayList<ArrayDeque<ByteBuffer>>();
+		private ArrayDeque<Frame> frames = new ArrayDeque<Frame>(THREAD_CACHE_SIZE);
+
+		private ThreadCache() {
+			for (int i = 0; i < SIZE_CLASSES.length; i++) {
+				buffers.add(new ArrayDeque<ByteBuffer>(THREAD_CACHE_SIZE));
+			}
+		}
+	}
+}
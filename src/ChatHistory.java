@@ -0,0 +1,416 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * The persisted history of the chat room messages, with an inverted index for searching it.
+ * The sending threads only put the messages into a queue. The indexer thread appends them to the history
+ * file and indexes them into immutable segments, which the merger thread merges in the background, so
+ * neither the writing nor the indexing delays the delivery of the messages. The segments are kept in memory
+ * and built again from the history file when the server starts.
+ *
+ * Private messages are not kept, since the users' names are not authenticated and are only unique while
+ * the users are online, so anybody connecting with the name of a user could read that user's private messages.
+ */
+public class ChatHistory {
+	//The number of messages indexed in memory before they become a segment
+	private static final int SEGMENT_MESSAGES = 1024;
+	//The number of segments above which the merger thread merges them
+	private static final int MAXIMUM_SEGMENTS = 8;
+	//The number of the results on a page of the search
+	public static final int PAGE_SIZE = 10;
+	private static final int MAXIMUM_TERM_LENGTH = 64;
+	//The kind of the records of the room messages (the other kinds were the private messages written by an earlier version)
+	private static final byte ROOM_MESSAGE = 0;
+
+	/**
+	 * A message waiting to be written and indexed.
+	 */
+	private static class Message {
+		private byte kind;
+		private String sender;
+		private String recipient;
+		private String text;
+
+		private Message(byte kind, String sender, String recipient, String text) {
+			this.kind = kind;
+			this.sender = sender;
+			this.recipient = recipient;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * A page of the results of a search.
+	 */
+	public static class SearchResult {
+		private int totalCount;
+		private ArrayList<String> messages = new ArrayList<String>();
+
+		/**
+		 * @return - Returns the number of all the messages found.
+		 */
+		public int getTotalCount() {
+			return totalCount;
+		}
+
+		/**
+		 * @return - Returns the messages on the page, newest first.
+		 */
+		public ArrayList<String> getMessages() {
+			return messages;
+		}
+	}
+
+	private File file;
+	private BlockingQueue<Message> queue = new LinkedBlockingQueue<Message>();
+	//The immutable list of the segments, from the oldest messages to the newest, replaced as a whole when changed
+	private volatile List<IndexSegment> segments = Collections.emptyList();
+	//The position of each message in the history file, by the message id
+	private volatile long[] positions = new long[1024];
+	private int messagesCount = 0;
+	//The terms of the messages that are not in a segment yet
+	private TreeMap<String, ArrayList<Integer>> pendingTerms = new TreeMap<String, ArrayList<Integer>>();
+	private int pendingMessagesCount = 0;
+	//The file for reading the messages found by the searches, opened by the indexer thread
+	private volatile RandomAccessFile reader;
+	private DataOutputStream writer;
+	//Whether the indexer thread has stopped, after which the new messages are dropped instead of piling up in the queue
+	private volatile boolean failed = false;
+	private long writerPosition;
+
+	/**
+	 * Constructor for the class ChatHistory, the history is written and indexed once started.
+	 * @param file - The file of the history, created if it doesn't exist.
+	 */
+	public ChatHistory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * A method for starting the indexer and merger threads. The indexer indexes the messages already
+	 * in the history file first.
+	 */
+	public void start() {
+		Thread indexer = new Thread(new Runnable() {
+			public void run() {
+				index();
+			}
+		}, "History indexer");
+		indexer.setDaemon(true);
+		indexer.start();
+
+		Thread merger = new Thread(new Runnable() {
+			public void run() {
+				merge();
+			}
+		}, "History merger");
+		merger.setDaemon(true);
+		merger.start();
+	}
+
+	/**
+	 * A method for adding a message sent to the chat room.
+	 * @param sender - The name of the user who sent the message.
+	 * @param text - The message.
+	 */
+	public void addRoomMessage(String sender, String text) {
+		if (!failed) {
+			queue.add(new Message(ROOM_MESSAGE, sender, "", text));
+		}
+	}
+
+	/**
+	 * A method for searching the chat room messages containing all the words of the query.
+	 * @param query - The words to search for.
+	 * @param page - The number of the page of the results, starting with 0.
+	 * @return - Returns the page of the results.
+	 * @throws IOException - Throws an exception in case the messages couldn't be read from the history file.
+	 */
+	public SearchResult search(String query, int page) throws IOException {
+		SearchResult result = new SearchResult();
+		ArrayList<String> queryTerms = tokenize(query);
+		if (queryTerms.isEmpty()) {
+			return result;
+		}
+
+		//Collect the matching ids from all the segments, which hold ascending ranges of the ids
+		List<IndexSegment> currentSegments = segments;
+		long[] currentPositions = positions;
+		int[][] segmentsIds = new int[currentSegments.size()][];
+		for (int i = 0; i < currentSegments.size(); i++) {
+			final IndexSegment segment = currentSegments.get(i);
+			//Start from the rarest term, so the candidates are few and the other posting lists are decoded only up to the last one
+			ArrayList<String> terms = new ArrayList<String>(queryTerms);
+			Collections.sort(terms, new Comparator<String>() {
+				public int compare(String first, String second) {
+					return segment.getIdsCount(first) - segment.getIdsCount(second);
+				}
+			});
+			int[] ids = segment.getIds(terms.get(0));
+			for (int j = 1; j < terms.size() && ids.length > 0; j++) {
+				ids = segment.retainIds(terms.get(j), ids);
+			}
+			segmentsIds[i] = ids;
+			result.totalCount += segmentsIds[i].length;
+		}
+
+		//Read the messages of the page, from the newest (the messages of the earlier pages are counted as a long,
+		//since page * PAGE_SIZE overflows an int for the very high pages)
+		long skipCount = (long) page * PAGE_SIZE;
+		for (int i = currentSegments.size() - 1; i >= 0 && result.messages.size() < PAGE_SIZE; i--) {
+			//Skip the whole segment if all its messages are on the earlier pages
+			if (skipCount >= segmentsIds[i].length) {
+				skipCount -= segmentsIds[i].length;
+				continue;
+			}
+			for (int j = segmentsIds[i].length - 1 - (int) skipCount; j >= 0 && result.messages.size() < PAGE_SIZE; j--) {
+				result.messages.add(read(segmentsIds[i][j], currentPositions));
+			}
+			skipCount = 0;
+		}
+		return result;
+	}
+
+	/**
+	 * A method for splitting a text into the lower case terms of the letters and digits.
+	 * @param text - The text.
+	 * @return - Returns the distinct terms.
+	 */
+	static ArrayList<String> tokenize(String text) {
+		ArrayList<String> terms = new ArrayList<String>();
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+				if (term.length() < MAXIMUM_TERM_LENGTH) {
+					term.append(Character.toLowerCase(text.charAt(i)));
+				}
+			} else if (term.length() > 0) {
+				String completedTerm = term.toString();
+				if (!terms.contains(completedTerm)) {
+					terms.add(completedTerm);
+				}
+				term.setLength(0);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * The loop of the indexer thread.
+	 */
+	private void index() {
+		try {
+			openFile();
+			while (true) {
+				Message message = queue.poll();
+				//If there are no more messages for now, make the pending ones searchable and wait for the next one
+				if (message == null) {
+					writer.flush();
+					publishPendingSegment();
+					message = queue.take();
+				}
+				indexMessage(message);
+				writerPosition += write(message);
+				if (pendingMessagesCount == SEGMENT_MESSAGES) {
+					writer.flush();
+					publishPendingSegment();
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("The chat history can't be written anymore");
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			System.out.println("The chat history can't be indexed anymore");
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			//Whatever stopped the indexer, stop queueing the messages that would never be written
+			failed = true;
+			queue.clear();
+		}
+	}
+
+	/**
+	 * A method for opening the history file, indexing the messages already in it and dropping
+	 * an incomplete message at its end (i.e. written when the server stopped), or everything from
+	 * a corrupt message on.
+	 * @throws IOException - Throws an exception in case the file couldn't be opened or read.
+	 */
+	private void openFile() throws IOException {
+		RandomAccessFile scanner = new RandomAccessFile(file, "rw");
+		reader = new RandomAccessFile(file, "r");
+		try {
+			while (writerPosition < scanner.length()) {
+				scanner.seek(writerPosition);
+				Message message = new Message(scanner.readByte(), readString(scanner), readString(scanner), readString(scanner));
+				//Skip the private messages written by an earlier version, they must not be found
+				if (message.kind == ROOM_MESSAGE) {
+					indexMessage(message);
+				}
+				writerPosition = scanner.getFilePointer();
+				if (pendingMessagesCount == SEGMENT_MESSAGES) {
+					publishPendingSegment();
+				}
+			}
+		} catch (EOFException e) {
+			scanner.setLength(writerPosition);
+		} catch (RuntimeException e) {
+			System.out.println("The chat history is corrupt at " + writerPosition + ", dropping the messages from there on");
+			e.printStackTrace();
+			scanner.setLength(writerPosition);
+		} finally {
+			scanner.close();
+		}
+		publishPendingSegment();
+		writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/**
+	 * A method for adding the terms of the next message to the pending terms, and its position to the positions.
+	 * @param message - The message.
+	 */
+	private void indexMessage(Message message) {
+		int id = messagesCount;
+		if (id == positions.length) {
+			positions = Arrays.copyOf(positions, positions.length * 2);
+		}
+		//The message starts at the current end of the history file
+		positions[id] = writerPosition;
+		messagesCount++;
+
+		ArrayList<String> terms = tokenize(message.text);
+		for (int i = 0; i < terms.size(); i++) {
+			ArrayList<Integer> ids = pendingTerms.get(terms.get(i));
+			if (ids == null) {
+				ids = new ArrayList<Integer>();
+				pendingTerms.put(terms.get(i), ids);
+			}
+			ids.add(id);
+		}
+		pendingMessagesCount++;
+	}
+
+	/**
+	 * A method for turning the pending terms into a segment and adding it to the searchable segments.
+	 */
+	private void publishPendingSegment() {
+		if (pendingMessagesCount == 0) {
+			return;
+		}
+		IndexSegment segment = IndexSegment.build(pendingTerms, pendingMessagesCount);
+		pendingTerms = new TreeMap<String, ArrayList<Integer>>();
+		pendingMessagesCount = 0;
+		synchronized (this) {
+			ArrayList<IndexSegment> newSegments = new ArrayList<IndexSegment>(segments);
+			newSegments.add(segment);
+			segments = Collections.unmodifiableList(newSegments);
+			//Wake up the merger if there are too many segments
+			if (newSegments.size() > MAXIMUM_SEGMENTS) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * The loop of the merger thread, merging the two neighbouring segments with the fewest messages
+	 * whenever there are too many segments.
+	 */
+	private void merge() {
+		try {
+			while (true) {
+				List<IndexSegment> currentSegments;
+				synchronized (this) {
+					while (segments.size() <= MAXIMUM_SEGMENTS) {
+						wait();
+					}
+					currentSegments = segments;
+				}
+				int smallestPair = 0;
+				for (int i = 1; i < currentSegments.size() - 1; i++) {
+					if (currentSegments.get(i).getMessagesCount() + currentSegments.get(i + 1).getMessagesCount()
+							< currentSegments.get(smallestPair).getMessagesCount() + currentSegments.get(smallestPair + 1).getMessagesCount()) {
+						smallestPair = i;
+					}
+				}
+				IndexSegment older = currentSegments.get(smallestPair);
+				IndexSegment newer = currentSegments.get(smallestPair + 1);
+				//Merge outside the lock, the indexer can meanwhile only add new segments at the end
+				IndexSegment merged = IndexSegment.merge(older, newer);
+				synchronized (this) {
+					ArrayList<IndexSegment> newSegments = new ArrayList<IndexSegment>(segments);
+					int index = newSegments.indexOf(older);
+					newSegments.set(index, merged);
+					newSegments.remove(index + 1);
+					segments = Collections.unmodifiableList(newSegments);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A method for writing a message at the end of the history file.
+	 * @param message - The message.
+	 * @return - Returns the number of bytes written.
+	 * @throws IOException - Throws an exception in case the file couldn't be written.
+	 */
+	private int write(Message message) throws IOException {
+		writer.writeByte(message.kind);
+		return 1 + writeString(writer, message.sender) + writeString(writer, message.recipient) + writeString(writer, message.text);
+	}
+
+	/**
+	 * A method for reading a message from the history file, formatted as a result of the search.
+	 * @param id - The id of the message.
+	 * @param currentPositions - The positions of the messages.
+	 * @return - Returns the formatted message.
+	 * @throws IOException - Throws an exception in case the file couldn't be read.
+	 */
+	private String read(int id, long[] currentPositions) throws IOException {
+		String sender;
+		String text;
+		synchronized (reader) {
+			//Skip the kind of the record, only the room messages are indexed
+			reader.seek(currentPositions[id] + 1);
+			sender = readString(reader);
+			//Skip the recipient, which is empty for the room messages
+			readString(reader);
+			text = readString(reader);
+		}
+		return "#" + id + " " + sender + ": " + text;
+	}
+
+	private static int writeString(DataOutputStream output, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		output.writeInt(bytes.length);
+		output.write(bytes);
+		return 4 + bytes.length;
+	}
+
+	private static String readString(RandomAccessFile input) throws IOException {
+		int length = input.readInt();
+		//A length that doesn't fit in the rest of the file is the same as a message cut off at the end of the file
+		if (length < 0 || length > input.length() - input.getFilePointer()) {
+			throw new EOFException("The length of the text is " + length);
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
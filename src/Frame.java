@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+
+/**
+ * A single server response (i.e. the response type followed by its arguments, one per line), encoded
+ * into a pooled direct buffer. The same frame can be sent to many recipients, it is reference counted
+ * and its buffer goes back to the BufferPool when the last reference is released.
+ * The lines are encoded with the default charset and line separator, the same as a PrintWriter would do.
+ */
+public class Frame {
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	//The deflaters for deflating the broadcast responses on their own, shared by all the frames since each deflater holds a lot of native memory
+	private static ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+	private BufferPool pool;
+	private ByteBuffer buffer;
+	private CharsetEncoder encoder;
+	//The reusable chunk of characters being encoded
+	private CharBuffer chars = CharBuffer.allocate(256);
+	private AtomicInteger referenceCount = new AtomicInteger();
+	//Whether the frame is sent to many recipients
+	private boolean broadcast;
+	//The response deflated on its own (once for all the recipients) and its length, -1 until it is deflated
+	private byte[] deflated;
+	private int deflatedLength;
+	//The reusable array for the response being deflated
+	private byte[] deflaterInput;
+
+	/**
+	 * Constructor for the class Frame, the frames are only created by the BufferPool.
+	 * @param pool - The pool owning the frame and its buffers.
+	 */
+	Frame(BufferPool pool) {
+		this.pool = pool;
+		encoder = Charset.defaultCharset().newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * A method for preparing a recycled frame for a new response.
+	 * @param buffer - The empty buffer to encode the response into.
+	 */
+	void open(ByteBuffer buffer, boolean broadcast) {
+		this.buffer = buffer;
+		this.broadcast = broadcast;
+		deflatedLength = -1;
+		referenceCount.set(1);
+	}
+
+	/**
+	 * A method for appending a text to the current line of the response.
+	 * @param text - The text to be appended.
+	 * @return - Returns this frame.
+	 */
+	public Frame append(String text) {
+		encoder.reset();
+		int offset = 0;
+		//Encode the text in chunks, copying the characters into the reusable char buffer
+		do {
+			int count = Math.min(chars.remaining(), text.length() - offset);
+			text.getChars(offset, offset + count, chars.array(), chars.arrayOffset() + chars.position());
+			chars.position(chars.position() + count);
+			offset += count;
+			chars.flip();
+			encode(offset == text.length());
+			//Keep the characters that couldn't be encoded yet (i.e. the first half of a surrogate pair)
+			chars.compact();
+		} while (offset < text.length());
+		return this;
+	}
+
+	/**
+	 * A method for appending a text and ending the current line of the response.
+	 * @param text - The text to be appended.
+	 * @return - Returns this frame.
+	 */
+	public Frame appendLine(String text) {
+		return append(text).append(LINE_SEPARATOR);
+	}
+
+	/**
+	 * A method for incrementing the reference count, e.g. when the frame is kept by a transport
+	 * after sending.
+	 * @return - Returns this frame.
+	 */
+	public Frame retain() {
+		referenceCount.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * A method for decrementing the reference count, giving the buffer back to the pool
+	 * when the last reference is released.
+	 */
+	public void release() {
+		int count = referenceCount.decrementAndGet();
+		if (count == 0) {
+			pool.releaseBuffer(buffer);
+			buffer = null;
+			pool.recycleFrame(this);
+		} else if (count < 0) {
+			throw new IllegalStateException("The frame has already been released");
+		}
+	}
+
+	/**
+	 * @return - Returns the number of bytes of the encoded response.
+	 */
+	public int length() {
+		return buffer.position();
+	}
+
+	/**
+	 * @return - Returns true if the frame is sent to many recipients.
+	 */
+	public boolean isBroadcast() {
+		return broadcast;
+	}
+
+	/**
+	 * A method for copying the encoded response into an array.
+	 * @param destination - The array to copy the response into.
+	 * @param offset - The position in the array where the response starts.
+	 */
+	public void copyTo(byte[] destination, int offset) {
+		int length = buffer.position();
+		buffer.flip();
+		buffer.get(destination, offset, length);
+		//Restore the buffer, so the frame can be copied again or appended to
+		buffer.limit(buffer.capacity());
+		buffer.position(length);
+	}
+
+	/**
+	 * A method for obtaining the length of the response deflated on its own, deflating it on the first call,
+	 * so that a broadcast response is compressed only once for all its recipients.
+	 * @return - Returns the number of bytes of the deflated response.
+	 */
+	public synchronized int deflatedLength() {
+		if (deflatedLength < 0) {
+			deflate();
+		}
+		return deflatedLength;
+	}
+
+	/**
+	 * A method for copying the response deflated on its own into an array.
+	 * @param destination - The array to copy the deflated response into, with room for deflatedLength() bytes.
+	 * @param offset - The position in the array where the deflated response starts.
+	 */
+	public synchronized void copyDeflatedTo(byte[] destination, int offset) {
+		System.arraycopy(deflated, 0, destination, offset, deflatedLength());
+	}
+
+	/**
+	 * A method for writing the whole response to a channel. A frame is written by one thread at a time,
+	 * but it can be written any number of times.
+	 * @param channel - The channel to write the response into.
+	 * @throws IOException - Throws an exception in case the channel couldn't be written.
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		int length = buffer.position();
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			//Restore the buffer, so the frame can be written again or appended to
+			buffer.limit(buffer.capacity());
+			buffer.position(length);
+		}
+	}
+
+	/**
+	 * @return - Returns the decoded response, e.g. for recording what has been sent.
+	 */
+	@Override
+	public String toString() {
+		ByteBuffer content = buffer.duplicate();
+		content.flip();
+		return encoder.charset().decode(content).toString();
+	}
+
+	/**
+	 * A method for encoding the characters of the char buffer, moving the response into
+	 * a bigger buffer whenever the current one overflows.
+	 * @param endOfText - Whether the char buffer holds the last characters of the text.
+	 */
+	private void encode(boolean endOfText) {
+		CoderResult result = encoder.encode(chars, buffer, endOfText);
+		while (result.isOverflow()) {
+			grow();
+			result = encoder.encode(chars, buffer, endOfText);
+		}
+		if (endOfText) {
+			while (encoder.flush(buffer).isOverflow()) {
+				grow();
+			}
+		}
+	}
+
+	/**
+	 * A method for deflating the response on its own with one of the shared deflaters.
+	 */
+	private void deflate() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater();
+		}
+		int length = length();
+		if (deflaterInput == null || deflaterInput.length < length) {
+			deflaterInput = new byte[length];
+		}
+		copyTo(deflaterInput, 0);
+		deflater.setInput(deflaterInput, 0, length);
+		deflater.finish();
+		if (deflated == null || deflated.length < length / 2 + 64) {
+			deflated = new byte[length / 2 + 64];
+		}
+		int count = 0;
+		while (!deflater.finished()) {
+			if (count == deflated.length) {
+				byte[] biggerArray = new byte[deflated.length * 2];
+				System.arraycopy(deflated, 0, biggerArray, 0, count);
+				deflated = biggerArray;
+			}
+			count += deflater.deflate(deflated, count, deflated.length - count);
+		}
+		deflatedLength = count;
+		deflater.reset();
+		deflaters.offer(deflater);
+	}
+
+	/**
+	 * A method for moving the encoded bytes into a buffer of twice the capacity.
+	 */
+	private void grow() {
+		ByteBuffer biggerBuffer = pool.acquireBuffer(buffer.capacity() * 2);
+		buffer.flip();
+		biggerBuffer.put(buffer);
+		pool.releaseBuffer(buffer);
+		buffer = biggerBuffer;
+	}
+}
@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+
+/**
+ * The compressed stream of a single client, negotiated with "compression deflate" in the handshake.
+ * Each response is sent as a block of one kind byte, the four byte length of the payload and the payload:
+ *
+ * RAW - the response as it is, used for the responses shorter than the threshold.
+ * STREAM - the response deflated with the persistent deflate context of this client (sync-flushed per response),
+ * so the client has to inflate all the STREAM blocks with one Inflater.
+ * MESSAGE - a broadcast response deflated on its own, which is compressed only once (by the Frame) and the same
+ * block is sent to all the recipients, so the client inflates it with a new (or reset) Inflater.
+ */
+public class FrameCompressor {
+	public static final byte RAW = 0;
+	public static final byte STREAM = 1;
+	public static final byte MESSAGE = 2;
+	private static final int HEADER_LENGTH = 5;
+
+	//The totals of the ended compressed streams, for the statistics shown when the server stops
+	private static AtomicLong endedStreamsCount = new AtomicLong();
+	private static AtomicLong totalUncompressedBytes = new AtomicLong();
+	private static AtomicLong totalWrittenBytes = new AtomicLong();
+
+	private int threshold;
+	//The persistent deflate context, created with the first STREAM block (as the big responses are mostly broadcasts)
+	private Deflater streamDeflater;
+	//The reusable arrays for the uncompressed response and the block to be written
+	private byte[] input = new byte[1024];
+	private byte[] block = new byte[1024];
+	private ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+	private long uncompressedBytes = 0;
+	private long writtenBytes = 0;
+	private boolean ended = false;
+
+	/**
+	 * Constructor for the class FrameCompressor
+	 * @param threshold - The length of the responses (in bytes) below which they are sent uncompressed.
+	 */
+	public FrameCompressor(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * A method for writing the block of a response to the client's channel.
+	 * @param frame - The frame of the response.
+	 * @param channel - The channel of the client.
+	 * @throws IOException - Throws an exception in case the channel couldn't be written.
+	 */
+	public void write(Frame frame, WritableByteChannel channel) throws IOException {
+		int length = frame.length();
+		int blockLength;
+		if (length < threshold) { //If the response is too short to be worth compressing
+			ensureBlockCapacity(HEADER_LENGTH + length);
+			frame.copyTo(block, HEADER_LENGTH);
+			blockLength = putHeader(RAW, length);
+		} else if (frame.isBroadcast()) { //If the response is sent to many clients, use its own compressed block
+			int deflatedLength = frame.deflatedLength();
+			ensureBlockCapacity(HEADER_LENGTH + deflatedLength);
+			frame.copyDeflatedTo(block, HEADER_LENGTH);
+			blockLength = putHeader(MESSAGE, deflatedLength);
+		} else { //The response is compressed with the persistent deflate context of this client
+			if (streamDeflater == null) {
+				streamDeflater = new Deflater();
+			}
+			copyToInput(frame, length);
+			streamDeflater.setInput(input, 0, length);
+			int compressedLength = 0;
+			//Deflate until the sync flush does not fill the rest of the block anymore
+			while (true) {
+				ensureBlockCapacity(HEADER_LENGTH + compressedLength + 64);
+				int free = block.length - HEADER_LENGTH - compressedLength;
+				int count = streamDeflater.deflate(block, HEADER_LENGTH + compressedLength, free, Deflater.SYNC_FLUSH);
+				compressedLength += count;
+				if (count < free) {
+					break;
+				}
+			}
+			blockLength = putHeader(STREAM, compressedLength);
+		}
+		uncompressedBytes += length;
+		writtenBytes += blockLength;
+
+		blockBuffer.limit(blockLength);
+		blockBuffer.position(0);
+		while (blockBuffer.hasRemaining()) {
+			channel.write(blockBuffer);
+		}
+	}
+
+	/**
+	 * @return - Returns the number of bytes of the responses before compression.
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+
+	/**
+	 * @return - Returns the number of bytes written to the client, including the block headers.
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * A method for freeing the native memory of the persistent deflate context, adding the bytes of this
+	 * stream to the statistics. Ending the stream again has no effect.
+	 */
+	public void end() {
+		if (ended) {
+			return;
+		}
+		ended = true;
+		if (streamDeflater != null) {
+			streamDeflater.end();
+		}
+		endedStreamsCount.incrementAndGet();
+		totalUncompressedBytes.addAndGet(uncompressedBytes);
+		totalWrittenBytes.addAndGet(writtenBytes);
+	}
+
+	/**
+	 * @return - Returns the statistics of the ended compressed streams, i.e. their number and their bytes before and after compression.
+	 */
+	public static String getStatistics() {
+		long uncompressed = totalUncompressedBytes.get();
+		long written = totalWrittenBytes.get();
+		return "streams: " + endedStreamsCount.get() + ", uncompressed bytes: " + uncompressed + ", written bytes: " + written
+				+ (uncompressed > 0 ? ", ratio: " + (written * 100 / uncompressed) + "%" : "");
+	}
+
+	/**
+	 * A method for copying the response into the input array, growing it if needed.
+	 * @param frame - The frame of the response.
+	 * @param length - The length of the response.
+	 */
+	private void copyToInput(Frame frame, int length) {
+		if (input.length < length) {
+			input = new byte[length];
+		}
+		frame.copyTo(input, 0);
+	}
+
+	/**
+	 * A method for growing the block array, keeping its content.
+	 * @param capacity - The number of bytes the block has to hold.
+	 */
+	private void ensureBlockCapacity(int capacity) {
+		if (block.length < capacity) {
+			byte[] biggerBlock = new byte[Math.max(capacity, block.length * 2)];
+			System.arraycopy(block, 0, biggerBlock, 0, block.length);
+			block = biggerBlock;
+			blockBuffer = ByteBuffer.wrap(block);
+		}
+	}
+
+	/**
+	 * A method for putting the kind and the payload length at the start of the block.
+	 * @param kind - The kind of the block.
+	 * @param payloadLength - The length of the payload following the header.
+	 * @return - Returns the length of the whole block.
+	 */
+	private int putHeader(byte kind, int payloadLength) {
+		block[0] = kind;
+		block[1] = (byte) (payloadLength >>> 24);
+		block[2] = (byte) (payloadLength >>> 16);
+		block[3] = (byte) (payloadLength >>> 8);
+		block[4] = (byte) payloadLength;
+		return HEADER_LENGTH + payloadLength;
+	}
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * An in-memory transport, which allows for driving the ServerThread without any sockets,
+ * e.g. for routing benchmarks and deterministic concurrency tests within a single process.
+ * The test feeds the client's requests with receive(...) and reads the server's responses
+ * with pollSentLine() or takeSentLine(...), and can wait for the server closing the transport with
+ * awaitClosed(...). When the responses are not recorded only the responses and their bytes
+ * are counted, so that sending does not allocate anything. With compression enabled the responses
+ * are still recorded as lines, while the counted bytes are those of the compressed stream.
+ */
+public class InMemoryTransport implements Transport {
+	//A sentinel line marking the end of the stream (compared by reference)
+	private static final String END_OF_STREAM = new String("end of stream");
+
+	private BlockingQueue<String> incomingLines = new LinkedBlockingQueue<String>();
+	private BlockingQueue<String> sentLines = new LinkedBlockingQueue<String>();
+	//Released once the transport has been closed
+	private CountDownLatch closedLatch = new CountDownLatch(1);
+	private AtomicLong sentBytesCount = new AtomicLong();
+	private AtomicLong sentResponsesCount = new AtomicLong();
+	private boolean recordSentLines;
+	private volatile boolean closed = false;
+	//The line taken from the queue by hasNext(), but not yet returned by nextLine()
+	private String nextLine;
+	private FrameCompressor compressor;
+	//The channel counting the bytes of the compressed stream instead of sending them anywhere
+	private WritableByteChannel countingChannel = new WritableByteChannel() {
+		@Override
+		public int write(ByteBuffer source) {
+			int count = source.remaining();
+			source.position(source.limit());
+			sentBytesCount.addAndGet(count);
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return !closed;
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	/**
+	 * Constructor for the class InMemoryTransport
+	 * @param recordSentLines - Whether the sent lines should be kept for pollSentLine() or only counted.
+	 */
+	public InMemoryTransport(boolean recordSentLines) {
+		this.recordSentLines = recordSentLines;
+	}
+
+	/**
+	 * A method for passing a line to the server, as if it was sent by the client.
+	 * @param line - The line of the client's request.
+	 */
+	public void receive(String line) {
+		incomingLines.add(line);
+	}
+
+	/**
+	 * A method for obtaining the oldest line sent by the server which has not been polled yet.
+	 * @return - Returns the line, or null if there is none (or the lines are not recorded).
+	 */
+	public String pollSentLine() {
+		return sentLines.poll();
+	}
+
+	/**
+	 * A method for waiting for the oldest line sent by the server which has not been taken yet.
+	 * @param timeoutMillis - The longest time to wait for the line.
+	 * @return - Returns the line, or null if none has been sent before the timeout (or the lines are not recorded).
+	 * @throws InterruptedException - Throws an exception in case the waiting was interrupted.
+	 */
+	public String takeSentLine(long timeoutMillis) throws InterruptedException {
+		return sentLines.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * A method for waiting until the transport has been closed, e.g. by the server disconnecting the user.
+	 * @param timeoutMillis - The longest time to wait.
+	 * @return - Returns true if the transport has been closed before the timeout.
+	 * @throws InterruptedException - Throws an exception in case the waiting was interrupted.
+	 */
+	public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+		return closedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return - Returns the number of bytes sent by the server to this transport.
+	 */
+	public long getSentBytesCount() {
+		return sentBytesCount.get();
+	}
+
+	/**
+	 * @return - Returns the number of responses sent by the server to this transport.
+	 */
+	public long getSentResponsesCount() {
+		return sentResponsesCount.get();
+	}
+
+	/**
+	 * @return - Returns true if the transport has been closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public boolean hasNext() {
+		//If there is no line waiting, block until the client sends one or the transport is closed
+		if (nextLine == null) {
+			try {
+				nextLine = incomingLines.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return nextLine != END_OF_STREAM;
+	}
+
+	@Override
+	public String nextLine() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("The transport has been closed");
+		}
+		String line = nextLine;
+		nextLine = null;
+		return line;
+	}
+
+	@Override
+	public void send(Frame frame) {
+		//Responses sent to a closed transport are lost, the same as with a closed socket
+		if (closed) {
+			return;
+		}
+		synchronized (this) {
+			//If the transport has been closed meanwhile (and the compressor ended)
+			if (closed) {
+				return;
+			}
+			//Record the lines while holding the lock, so that the lines of responses sent from different threads don't interleave
+			if (recordSentLines) {
+				//Split the response into its lines, the last element is the empty text after the final line separator
+				String[] lines = frame.toString().split("\\r?\\n", -1);
+				for (int i = 0; i < lines.length - 1; i++) {
+					sentLines.add(lines[i]);
+				}
+			}
+			if (compressor == null) {
+				sentBytesCount.addAndGet(frame.length());
+			} else {
+				try {
+					compressor.write(frame, countingChannel);
+				} catch (IOException e) {
+					//The counting channel does not throw
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		sentResponsesCount.incrementAndGet();
+	}
+
+	@Override
+	public synchronized void enableCompression(int threshold) {
+		compressor = new FrameCompressor(threshold);
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			synchronized (this) {
+				if (compressor != null) {
+					compressor.end();
+				}
+			}
+			//Wake up the reading thread and the threads waiting for the closure
+			incomingLines.add(END_OF_STREAM);
+			closedLatch.countDown();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * An immutable segment of the inverted index of the chat history, i.e. the sorted terms of a range
+ * of messages, each with the posting list of the ids of the messages containing it. The posting lists
+ * are compressed as the differences between the ascending ids, each written as a variable length integer.
+ * Segments are never changed, the ChatHistory replaces them with merged ones instead.
+ */
+public class IndexSegment {
+	private String[] terms;
+	private byte[][] postings;
+	private int[] postingsCounts;
+	private int messagesCount;
+
+	private IndexSegment(String[] terms, byte[][] postings, int[] postingsCounts, int messagesCount) {
+		this.terms = terms;
+		this.postings = postings;
+		this.postingsCounts = postingsCounts;
+		this.messagesCount = messagesCount;
+	}
+
+	/**
+	 * A method for building a segment from the terms of the indexed messages.
+	 * @param termIds - The ids of the messages of each term, in ascending order.
+	 * @param messagesCount - The number of the indexed messages.
+	 * @return - Returns the segment.
+	 */
+	public static IndexSegment build(TreeMap<String, ArrayList<Integer>> termIds, int messagesCount) {
+		String[] terms = new String[termIds.size()];
+		byte[][] postings = new byte[termIds.size()][];
+		int[] postingsCounts = new int[termIds.size()];
+		Iterator<Map.Entry<String, ArrayList<Integer>>> iterator = termIds.entrySet().iterator();
+		for (int i = 0; iterator.hasNext(); i++) {
+			Map.Entry<String, ArrayList<Integer>> entry = iterator.next();
+			ArrayList<Integer> ids = entry.getValue();
+			int[] idsArray = new int[ids.size()];
+			for (int j = 0; j < idsArray.length; j++) {
+				idsArray[j] = ids.get(j);
+			}
+			terms[i] = entry.getKey();
+			postings[i] = encode(idsArray);
+			postingsCounts[i] = idsArray.length;
+		}
+		return new IndexSegment(terms, postings, postingsCounts, messagesCount);
+	}
+
+	/**
+	 * A method for merging two segments, where all the messages of the older segment have lower ids.
+	 * @param older - The segment of the older messages.
+	 * @param newer - The segment of the newer messages.
+	 * @return - Returns the merged segment.
+	 */
+	public static IndexSegment merge(IndexSegment older, IndexSegment newer) {
+		ArrayList<String> terms = new ArrayList<String>();
+		ArrayList<byte[]> postings = new ArrayList<byte[]>();
+		ArrayList<Integer> postingsCounts = new ArrayList<Integer>();
+		int i = 0;
+		int j = 0;
+		//Walk through the sorted terms of both segments, concatenating the posting lists of the common terms
+		while (i < older.terms.length || j < newer.terms.length) {
+			int comparison;
+			if (i == older.terms.length) {
+				comparison = 1;
+			} else if (j == newer.terms.length) {
+				comparison = -1;
+			} else {
+				comparison = older.terms[i].compareTo(newer.terms[j]);
+			}
+			if (comparison < 0) {
+				terms.add(older.terms[i]);
+				postings.add(older.postings[i]);
+				postingsCounts.add(older.postingsCounts[i]);
+				i++;
+			} else if (comparison > 0) {
+				terms.add(newer.terms[j]);
+				postings.add(newer.postings[j]);
+				postingsCounts.add(newer.postingsCounts[j]);
+				j++;
+			} else {
+				int[] olderIds = older.decode(i);
+				int[] newerIds = newer.decode(j);
+				int[] ids = Arrays.copyOf(olderIds, olderIds.length + newerIds.length);
+				System.arraycopy(newerIds, 0, ids, olderIds.length, newerIds.length);
+				terms.add(older.terms[i]);
+				postings.add(encode(ids));
+				postingsCounts.add(ids.length);
+				i++;
+				j++;
+			}
+		}
+
+		int[] counts = new int[postingsCounts.size()];
+		for (int k = 0; k < counts.length; k++) {
+			counts[k] = postingsCounts.get(k);
+		}
+		return new IndexSegment(terms.toArray(new String[terms.size()]), postings.toArray(new byte[postings.size()][]), counts, older.messagesCount + newer.messagesCount);
+	}
+
+	/**
+	 * @return - Returns the number of the messages indexed in this segment.
+	 */
+	public int getMessagesCount() {
+		return messagesCount;
+	}
+
+	/**
+	 * A method for obtaining the ids of the messages containing a term.
+	 * @param term - The term.
+	 * @return - Returns the ids in ascending order, an empty array if no message contains the term.
+	 */
+	public int[] getIds(String term) {
+		int index = Arrays.binarySearch(terms, term);
+		if (index < 0) {
+			return new int[0];
+		}
+		return decode(index);
+	}
+
+	/**
+	 * @param term - The term.
+	 * @return - Returns the number of the messages containing the term, without decoding its posting list.
+	 */
+	public int getIdsCount(String term) {
+		int index = Arrays.binarySearch(terms, term);
+		return index < 0 ? 0 : postingsCounts[index];
+	}
+
+	/**
+	 * A method for keeping the ids of the messages which also contain a term. The posting list of the term is
+	 * decoded only up to the last candidate, so intersecting few candidates with a common term is cheap.
+	 * @param term - The term.
+	 * @param candidates - The ids to keep, in ascending order.
+	 * @return - Returns the candidates containing the term, in ascending order.
+	 */
+	public int[] retainIds(String term, int[] candidates) {
+		int index = Arrays.binarySearch(terms, term);
+		if (index < 0 || candidates.length == 0) {
+			return new int[0];
+		}
+		byte[] posting = postings[index];
+		int[] result = new int[candidates.length];
+		int count = 0;
+		int position = 0;
+		int id = 0;
+		int candidate = 0;
+		for (int i = 0; i < postingsCounts[index] && candidate < candidates.length; i++) {
+			int difference = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = posting[position++];
+				difference |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			id += difference;
+			//Skip the candidates lower than the decoded id, they don't contain the term
+			while (candidate < candidates.length && candidates[candidate] < id) {
+				candidate++;
+			}
+			if (candidate < candidates.length && candidates[candidate] == id) {
+				result[count++] = id;
+				candidate++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * A method for decoding the posting list of a term.
+	 * @param index - The index of the term.
+	 * @return - Returns the ids in ascending order.
+	 */
+	private int[] decode(int index) {
+		byte[] posting = postings[index];
+		int[] ids = new int[postingsCounts[index]];
+		int position = 0;
+		int id = 0;
+		for (int i = 0; i < ids.length; i++) {
+			//Read the variable length difference, seven bits per byte with the highest bit marking that more bytes follow
+			int difference = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = posting[position++];
+				difference |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			id += difference;
+			ids[i] = id;
+		}
+		return ids;
+	}
+
+	/**
+	 * A method for encoding ascending ids as the variable length differences.
+	 * @param ids - The ids in ascending order.
+	 * @return - Returns the encoded posting list.
+	 */
+	private static byte[] encode(int[] ids) {
+		ByteArrayOutputStream posting = new ByteArrayOutputStream(ids.length * 2);
+		int previousId = 0;
+		for (int i = 0; i < ids.length; i++) {
+			int difference = ids[i] - previousId;
+			previousId = ids[i];
+			while ((difference & ~0x7F) != 0) {
+				posting.write((difference & 0x7F) | 0x80);
+				difference >>>= 7;
+			}
+			posting.write(difference);
+		}
+		return posting.toByteArray();
+	}
+}
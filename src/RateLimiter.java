@@ -0,0 +1,117 @@
+/**
+ * The flood protection of a single user, i.e. a token bucket for each type of the limited
+ * requests and the penalty applied when the user sends them too quickly.
+ */
+public class RateLimiter {
+
+	/**
+	 * The types of the client requests that are limited, with the number of lines
+	 * following the request type (which have to be skipped when the request is rejected).
+	 */
+	public enum RequestType {
+		ROOM_MESSAGE("chat room message", 1),
+		PRIVATE_MESSAGE("private message", 2),
+		PRIVATE_CHAT_REQUEST("private chat", 1),
+		SEARCH("search", 2);
+
+		//The request types, kept so that finding the type of each request does not copy the values() array
+		private static final RequestType[] TYPES = values();
+
+		private String request;
+		private int argumentsCount;
+
+		private RequestType(String request, int argumentsCount) {
+			this.request = request;
+			this.argumentsCount = argumentsCount;
+		}
+
+		/**
+		 * @return - Returns the number of lines following the request type.
+		 */
+		public int getArgumentsCount() {
+			return argumentsCount;
+		}
+
+		/**
+		 * A method for finding the type of a client request.
+		 * @param clientRequest - The first line of the client request.
+		 * @return - Returns the request type, or null if the request is not limited.
+		 */
+		public static RequestType of(String clientRequest) {
+			for (int i = 0; i < TYPES.length; i++) {
+				if (TYPES[i].request.equals(clientRequest)) {
+					return TYPES[i];
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * What happens with a user who exceeds the limit.
+	 */
+	public enum Penalty {
+		//The request is dropped silently
+		DROP,
+		//The request is dropped and the user is warned with a chat room message response
+		WARN,
+		//The user is disconnected from the server
+		DISCONNECT
+	}
+
+	/**
+	 * The limit of one request type, i.e. the requests allowed per second, the burst of requests
+	 * allowed at once and the penalty for exceeding them.
+	 */
+	public static class Limit {
+		private double requestsPerSecond;
+		private int burst;
+		private Penalty penalty;
+
+		/**
+		 * Constructor for the class Limit
+		 * @param requestsPerSecond - The number of requests allowed per second.
+		 * @param burst - The number of requests allowed at once.
+		 * @param penalty - The penalty for exceeding the limit.
+		 */
+		public Limit(double requestsPerSecond, int burst, Penalty penalty) {
+			this.requestsPerSecond = requestsPerSecond;
+			this.burst = burst;
+			this.penalty = penalty;
+		}
+	}
+
+	private TokenBucket[] buckets = new TokenBucket[RequestType.values().length];
+	private Penalty[] penalties = new Penalty[RequestType.values().length];
+
+	/**
+	 * Constructor for the class RateLimiter
+	 * @param limits - The limit of each request type, in the order of RequestType.values().
+	 */
+	public RateLimiter(Limit... limits) {
+		if (limits.length != buckets.length) {
+			throw new IllegalArgumentException("Expected a limit for each of the " + buckets.length + " request types");
+		}
+		for (int i = 0; i < limits.length; i++) {
+			buckets[i] = new TokenBucket(limits[i].requestsPerSecond, limits[i].burst);
+			penalties[i] = limits[i].penalty;
+		}
+	}
+
+	/**
+	 * A method for checking if the user is allowed to send the request now.
+	 * @param requestType - The type of the request.
+	 * @return - Returns true if the request is allowed, false if it exceeds the limit.
+	 */
+	public boolean tryAcquire(RequestType requestType) {
+		return buckets[requestType.ordinal()].tryAcquire();
+	}
+
+	/**
+	 * @param requestType - The type of the request.
+	 * @return - Returns the penalty for exceeding the limit of the request type.
+	 */
+	public Penalty getPenalty(RequestType requestType) {
+		return penalties[requestType.ordinal()];
+	}
+}
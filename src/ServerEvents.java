@@ -0,0 +1,119 @@
+/**
+ * The hooks of the request path for the Java Flight Recorder events, i.e. the dispatch of the requests,
+ * the writes of the broadcast responses to each recipient and the handshakes of the new users.
+ * The events are enabled by starting the server with -Dchatserver.events=true (and a recording, see chat-server.jfc).
+ *
+ * When they are disabled each hook is a check of a constant, which the JIT compiler removes, and the classes
+ * of the flight recorder (FlightRecorderEvents and jdk.jfr, available since Java 11) are never loaded.
+ * FlightRecorderEvents is in the jfr folder, compiled only on Java 11 or later, so it is loaded by its name and
+ * the events stay disabled if it is missing. The events are passed around as Objects, so that the callers
+ * don't depend on those classes either.
+ */
+public class ServerEvents {
+	//The implementation of the events, null if they are disabled or the flight recorder isn't available
+	private static final Recorder recorder = Boolean.getBoolean("chatserver.events") ? loadRecorder() : null;
+	public static final boolean ENABLED = recorder != null;
+
+	/**
+	 * The events of the server, implemented by FlightRecorderEvents in the jfr folder.
+	 */
+	interface Recorder {
+		Object beginRequest();
+
+		void endRequest(Object event, String requestType, String userName, long argumentsWaitNanos, long dispatchNanos, boolean rateLimited);
+
+		Object beginRecipientWrite();
+
+		void endRecipientWrite(Object event, String recipientName, int bytes);
+
+		Object beginHandshake();
+
+		void endHandshake(Object event, String userName, String outcome, boolean compressed);
+	}
+
+	/**
+	 * A method for loading FlightRecorderEvents, which is compiled only on Java 11 or later.
+	 * @return - Returns the recorder, null if the class or the flight recorder isn't available.
+	 */
+	private static Recorder loadRecorder() {
+		try {
+			return (Recorder) Class.forName("FlightRecorderEvents").getConstructor().newInstance();
+		} catch (Exception e) {
+			System.out.println("The flight recorder events are not available (" + e + "), running without them");
+		} catch (LinkageError e) {
+			System.out.println("The flight recorder events require Java 11 or later (" + e + "), running without them");
+		}
+		return null;
+	}
+
+	/**
+	 * @return - Returns the current System.nanoTime() if the events are enabled, 0 otherwise.
+	 */
+	public static long nanoTime() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * A method for beginning the event of a request, after its request type has been read.
+	 * @return - Returns the event, null if the events are disabled.
+	 */
+	public static Object beginRequest() {
+		return ENABLED ? recorder.beginRequest() : null;
+	}
+
+	/**
+	 * A method for committing the event of a request, once it has been dispatched.
+	 * @param event - The event returned by beginRequest().
+	 * @param requestType - The request type, e.g. "chat room message".
+	 * @param userName - The name of the user who sent the request.
+	 * @param argumentsWaitNanos - The time spent blocked waiting for the arguments of the request from the client.
+	 * @param dispatchNanos - The rest of the duration of the event, i.e. the time spent by the server on the request.
+	 * @param rateLimited - Whether the request has been rejected by the flood protection.
+	 */
+	public static void endRequest(Object event, String requestType, String userName, long argumentsWaitNanos, long dispatchNanos, boolean rateLimited) {
+		if (ENABLED) {
+			recorder.endRequest(event, requestType, userName, argumentsWaitNanos, dispatchNanos, rateLimited);
+		}
+	}
+
+	/**
+	 * A method for beginning the event of a write of a broadcast response to one of the recipients.
+	 * @return - Returns the event, null if the events are disabled.
+	 */
+	public static Object beginRecipientWrite() {
+		return ENABLED ? recorder.beginRecipientWrite() : null;
+	}
+
+	/**
+	 * A method for committing the event of a write to a recipient, once the send has returned.
+	 * @param event - The event returned by beginRecipientWrite().
+	 * @param recipientName - The name of the user the response has been sent to.
+	 * @param bytes - The length of the response before compression.
+	 */
+	public static void endRecipientWrite(Object event, String recipientName, int bytes) {
+		if (ENABLED) {
+			recorder.endRecipientWrite(event, recipientName, bytes);
+		}
+	}
+
+	/**
+	 * A method for beginning the event of the handshake of a new connection.
+	 * @return - Returns the event, null if the events are disabled.
+	 */
+	public static Object beginHandshake() {
+		return ENABLED ? recorder.beginHandshake() : null;
+	}
+
+	/**
+	 * A method for committing the event of a handshake, once the user has been accepted or declined.
+	 * @param event - The event returned by beginHandshake().
+	 * @param userName - The name presented by the user.
+	 * @param outcome - The outcome of the handshake, i.e. the first response sent to the user.
+	 * @param compressed - Whether the user has negotiated a compressed stream.
+	 */
+	public static void endHandshake(Object event, String userName, String outcome, boolean compressed) {
+		if (ENABLED) {
+			recorder.endHandshake(event, userName, outcome, compressed);
+		}
+	}
+}
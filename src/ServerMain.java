@@ -3,12 +3,23 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import javax.swing.*;
@@ -17,16 +28,46 @@ import javax.swing.*;
 public class ServerMain {
 
 	private static int portNumber = 4444;
+	//The flood protection limits of each user (the requests allowed per second, the burst of requests allowed at once and the penalty for exceeding them)
+	private static RateLimiter.Limit roomMessagesLimit = new RateLimiter.Limit(5, 10, RateLimiter.Penalty.WARN);
+	private static RateLimiter.Limit privateMessagesLimit = new RateLimiter.Limit(10, 20, RateLimiter.Penalty.WARN);
+	private static RateLimiter.Limit privateChatRequestsLimit = new RateLimiter.Limit(1, 5, RateLimiter.Penalty.DROP);
+	private static RateLimiter.Limit searchesLimit = new RateLimiter.Limit(1, 5, RateLimiter.Penalty.DROP);
+	//The admission control, i.e. the maximum number of connected users and the maximum percentage of the heap in use when a new user connects
+	//(measured after the last garbage collection, as the garbage not collected yet doesn't mean that the memory is short)
+	private static int maximumSessions = 1000;
+	private static int maximumUsedMemoryPercentage = 90;
+	private static ArrayList<MemoryPoolMXBean> heapMemoryPools = findHeapMemoryPools();
+	//Whether the clients may ask for a compressed stream, and the length of the responses (in bytes) below which they are sent uncompressed
+	private static boolean compressionAllowed = true;
+	private static int compressionThreshold = 256;
+	//The shutdown, i.e. the time allowed for notifying and closing all the users, the number of threads doing it in parallel,
+	//the file keeping the sessions over the restart and how long after the restart the sessions can be resumed (which the tests shorten)
+	private static long shutdownDeadlineMillis = 3000;
+	private static int shutdownThreads = 16;
+	private static File sessionSnapshotFile = new File("sessions.snapshot");
+	static long resumptionWindowMillis = 60000;
+	//The file keeping the history of the chat room messages, which the users can search (private messages are not kept)
+	private static File chatHistoryFile = new File("chat.history");
+	//The sessions of the previous run of the server that can still be resumed (null if there are none) and the timer ending their resumption
+	private static volatile SessionSnapshot sessionSnapshot;
+	private static Timer resumptionTimer;
 	private static JFrame window;
 	private static ServerSocket serverSocket;
-	private static JTextArea serverMessagesTextArea;
+	//Initialise the server messages area, so that the users can be added (e.g. with an InMemoryTransport) before the window is set up
+	private static JTextArea serverMessagesTextArea = new JTextArea();
 	//Initialise array list for storing/retrieving/manipulating the user names
+	//(both array lists are only used while holding the lock of usersNamesArrayList, e.g. through copyUsers(...) for the broadcasts)
 	public static ArrayList<String> usersNamesArrayList = new ArrayList<String>();
-	//Initialise array list for storing/retrieving/manipulating the sockets
-	public static ArrayList<Socket> socketsArrayList = new ArrayList<Socket>();
+	//Initialise array list for storing/retrieving/manipulating the transports of the users
+	public static ArrayList<Transport> transportsArrayList = new ArrayList<Transport>();
+	//Initialise the pool of direct buffers for encoding the responses sent to the users
+	public static BufferPool bufferPool = new BufferPool();
+	//Initialise the map of the users privately chatting, by the user names (both users of a private chat are in each other's list)
+	public static HashMap<String, ArrayList<String>> privateChatPartners = new HashMap<String, ArrayList<String>>();
+	//The searchable history of the chat room messages, created when the server is started for the first time
+	public static volatile ChatHistory chatHistory;
 	private static Socket link;
-	private static PrintWriter networkOutput;
-	private static Scanner networkInput;
 	//Declare a boolean for the automatic scrolling of the server messages area
 	public static boolean automaticScrolling = true;
 	
@@ -44,13 +85,8 @@ public class ServerMain {
 				//If the link is still up
 				if (link != null) {
 					
-					try {
-						//Call a method to disconnect all users from the server
-						disconnectAllUsersFromServer();
-					} catch (IOException e1) {
-						JOptionPane.showMessageDialog(window, "Could not disconnect all users from the server.", "Disconnect error", JOptionPane.ERROR_MESSAGE);
-						e1.printStackTrace();
-					}
+					//Call a method to disconnect all users from the server
+					disconnectAllUsersFromServer();
 					System.exit(0);
 				}
 			}//End of windowClosing method
@@ -124,27 +160,82 @@ public class ServerMain {
 	}//End of runService method
 	
 	/**
-	 * A method for adding a new user, with checking if the username
-	 * already exists (i.e. no duplicate names allowed), adding the client's link and 
-	 * username to the arraylists and starting a ServerThread for the client.
+	 * A method for adding a new user connected with the link Socket, by wrapping
+	 * the link into a SocketTransport.
 	 * @param link - The link Socket of the client to be added.
 	 * @return - returns the username of the added client.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised.
+	 * @throws IOException - Throws an exception in case the SocketTransport couldn't be initialised.
 	 */
 	private static String addUser(Socket link) throws IOException {
-		
+		SocketTransport transport = null;
 		try {
-			//Initialise a network input scanner for obtaining the messages passed from client
-			networkInput = new Scanner(link.getInputStream());
+			//Initialise the socket transport for obtaining the messages passed from client and sending the responses
+			transport = new SocketTransport(link);
 		} catch (IOException e) {
-			JOptionPane.showMessageDialog(window, "Could not create networkInput", "Input Stream error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
+			JOptionPane.showMessageDialog(window, "Could not create the socket transport", "Stream error", JOptionPane.ERROR_MESSAGE);
+			throw e;
 		}
+		return addUser(transport);
+	}//End of addUser method
+	
+	/**
+	 * A method for adding a new user, with checking if the username
+	 * already exists (i.e. no duplicate names allowed), adding the client's transport and 
+	 * username to the arraylists and starting a ServerThread for the client.
+	 * @param transport - The Transport of the client to be added.
+	 * @return - returns the username of the added client.
+	 */
+	static String addUser(Transport transport) {
+		//Begin the flight recorder event of the handshake (null if the events are disabled)
+		Object handshakeEvent = ServerEvents.beginHandshake();
 		//Obtain the userName from the message passed from the client
-		String userName = networkInput.nextLine();
+		String userName = transport.nextLine();
+		String resumptionToken = null;
+		boolean compressed = false;
+		
+		//If the client asks for a compressed stream, the userName follows the request
+		if (userName.equals("compression deflate")) {
+			userName = transport.nextLine();
+			//Send the answer to the client uncompressed, the following responses are sent in the negotiated way
+			Frame frame = bufferPool.acquireFrame().appendLine(compressionAllowed ? "compression accepted" : "compression declined");
+			transport.send(frame);
+			frame.release();
+			if (compressionAllowed) {
+				transport.enableCompression(compressionThreshold);
+				compressed = true;
+			}
+		}
+		
+		//If the client asks for resuming its session from before the restart, the resumption token and the userName follow the request
+		if (userName.equals("resume session")) {
+			resumptionToken = transport.nextLine();
+			userName = transport.nextLine();
+		}
 		
-		//Check if the userName already exists in the arrayList
-		if (usersNamesArrayList.contains(userName)) {
+		//The sessions of the previous run which can still be resumed, whose names are kept for their users
+		SessionSnapshot snapshot = sessionSnapshot;
+		
+		//Check if the server can take another user
+		if (isOverloaded()) {
+			serverMessagesTextArea.append("User " + userName + " has attempted to connect to the chat, declined since the server is overloaded \n");
+			
+			//If the user wants automatically scrolled server messages text area
+	    	if (automaticScrolling) {
+	    		//Automatically scroll the serverMessagesTextArea to the bottom for the user.
+	    		serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
+	    	}
+			
+			//Send the server response type to the client and close its transport
+			Frame frame = bufferPool.acquireFrame().appendLine("server busy");
+			transport.send(frame);
+			frame.release();
+			try {
+				transport.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			ServerEvents.endHandshake(handshakeEvent, userName, "server busy", compressed);
+		} else if (isOnline(userName) || (snapshot != null && snapshot.isReserved(userName, resumptionToken))) { //Check if the userName already exists in the arrayList or is kept for a session to be resumed
 			serverMessagesTextArea.append("User " + userName + " has attempted to connect to the chat, declined since another user already uses this name \n");
 			
 			//If the user wants automatically scrolled server messages text area
@@ -153,14 +244,24 @@ public class ServerMain {
 	    		serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
 	    	}
 			
-			//Initialise a network output printWriter for sending the message to a client
-			networkOutput = new PrintWriter(link.getOutputStream());
 			//Send the server response type to the client
-			networkOutput.println("name already used");
-			networkOutput.flush();
+			Frame frame = bufferPool.acquireFrame().appendLine("name already used");
+			transport.send(frame);
+			frame.release();
+			ServerEvents.endHandshake(handshakeEvent, userName, "name already used", compressed);
 		} else { //If the userName doesn't exist in arrayList
 			
-			serverMessagesTextArea.append("User " + userName + " has been connected to the chat \n");
+			//Obtain the session to be resumed, if the client has a valid resumption token
+			SessionSnapshot.Session resumedSession = null;
+			if (resumptionToken != null && snapshot != null) {
+				resumedSession = snapshot.claim(resumptionToken, userName);
+			}
+			
+			if (resumedSession != null) {
+				serverMessagesTextArea.append("User " + userName + " has resumed the session \n");
+			} else {
+				serverMessagesTextArea.append("User " + userName + " has been connected to the chat \n");
+			}
 			
 			//If the user wants automatically scrolled server messages text area
 	    	if (automaticScrolling) {
@@ -168,47 +269,336 @@ public class ServerMain {
 	    		serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
 	    	}
 			
-			//Add the user to the array list
-			usersNamesArrayList.add(userName);
-			//Add the socket to the array list
-			socketsArrayList.add(link);
-			System.out.println("Debugging size of socket vs userNames: " + socketsArrayList.size() + " vs " + usersNamesArrayList.size());
+			synchronized (usersNamesArrayList) {
+				//Add the user to the array list
+				usersNamesArrayList.add(userName);
+				//Add the transport to the array list
+				transportsArrayList.add(transport);
+				System.out.println("Debugging size of transports vs userNames: " + transportsArrayList.size() + " vs " + usersNamesArrayList.size());
+			}
 		
-			//Initialise the thread passing the link, userName, window frame and serverMessagesTextArea into constructor and then start the thread.
-			ServerThread thread = new ServerThread(link, userName, window, serverMessagesTextArea);
+			//Initialise the user's flood protection
+			RateLimiter rateLimiter = new RateLimiter(roomMessagesLimit, privateMessagesLimit, privateChatRequestsLimit, searchesLimit);
+			//Initialise the thread passing the transport, userName, rateLimiter, resumedSession, window frame and serverMessagesTextArea into constructor and then start the thread.
+			ServerThread thread = new ServerThread(transport, userName, rateLimiter, resumedSession, window, serverMessagesTextArea);
 			Thread t = new Thread(thread);
 			t.start();
+			ServerEvents.endHandshake(handshakeEvent, userName, resumedSession != null ? "session resumed" : "connected", compressed);
 		}
 		return userName;
 	}//End of addUser method
 	
 	/**
-	 * A method for disconnecting all currently online users from the server.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
-	 * or the socket couldn't be closed.
+	 * A method for checking if the server is over the configured number of users
+	 * or the configured usage of the memory.
+	 * @return - Returns true if a new user should be declined.
+	 */
+	private static boolean isOverloaded() {
+		if (getUsersCount() >= maximumSessions) {
+			return true;
+		}
+		//Add up the heap left in use by the last garbage collection of each pool
+		long usedMemory = 0;
+		for (int i = 0; i < heapMemoryPools.size(); i++) {
+			MemoryUsage usage = heapMemoryPools.get(i).getCollectionUsage();
+			if (usage != null) {
+				usedMemory += usage.getUsed();
+			}
+		}
+		return usedMemory * 100 / Runtime.getRuntime().maxMemory() >= maximumUsedMemoryPercentage;
+	}
+	
+	/**
+	 * @return - Returns the memory pools of the heap which report their usage after the garbage collections.
+	 */
+	private static ArrayList<MemoryPoolMXBean> findHeapMemoryPools() {
+		List<MemoryPoolMXBean> allPools = ManagementFactory.getMemoryPoolMXBeans();
+		ArrayList<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (int i = 0; i < allPools.size(); i++) {
+			if (allPools.get(i).getType() == MemoryType.HEAP && allPools.get(i).isCollectionUsageThresholdSupported()) {
+				pools.add(allPools.get(i));
+			}
+		}
+		return pools;
+	}
+	
+	/**
+	 * A method for copying the online users, so that a response can be sent to all of them without holding the lock
+	 * of the array lists (which would make every other thread wait for the slowest recipient).
+	 * @param userNames - The empty list to be filled with the users names.
+	 * @return - Returns the transports of the users, at the same positions as their names.
+	 */
+	static ArrayList<Transport> copyUsers(ArrayList<String> userNames) {
+		synchronized (usersNamesArrayList) {
+			userNames.addAll(usersNamesArrayList);
+			return new ArrayList<Transport>(transportsArrayList);
+		}
+	}
+	
+	/**
+	 * @param userName - The name of the user.
+	 * @return - Returns the transport of the user, or null if the user is not online.
+	 */
+	static Transport getTransport(String userName) {
+		synchronized (usersNamesArrayList) {
+			int index = usersNamesArrayList.indexOf(userName);
+			return index < 0 ? null : transportsArrayList.get(index);
+		}
+	}
+	
+	/**
+	 * @param userName - The name of the user.
+	 * @return - Returns true if a user with the name is online.
+	 */
+	static boolean isOnline(String userName) {
+		synchronized (usersNamesArrayList) {
+			return usersNamesArrayList.contains(userName);
+		}
+	}
+	
+	/**
+	 * @return - Returns the number of the online users.
+	 */
+	static int getUsersCount() {
+		synchronized (usersNamesArrayList) {
+			return usersNamesArrayList.size();
+		}
+	}
+	
+	/**
+	 * A method for removing a user from the array lists, by the transport (so that a new user who has taken
+	 * the same name meanwhile is not removed).
+	 * @param transport - The transport of the user.
+	 * @return - Returns true if the user was online, false if it had been removed already.
+	 */
+	static boolean removeUser(Transport transport) {
+		synchronized (usersNamesArrayList) {
+			int index = transportsArrayList.indexOf(transport);
+			if (index < 0) {
+				return false;
+			}
+			transportsArrayList.remove(index);
+			usersNamesArrayList.remove(index);
+			return true;
+		}
+	}
+	
+	/**
+	 * A method for adding a private chat between two users.
+	 * @param userName - The name of one of the users.
+	 * @param partnerName - The name of the other user.
+	 */
+	static void addPrivateChat(String userName, String partnerName) {
+		synchronized (privateChatPartners) {
+			addPrivateChatPartner(userName, partnerName);
+			addPrivateChatPartner(partnerName, userName);
+		}
+	}
+	
+	/**
+	 * A method for removing a private chat between two users.
+	 * @param userName - The name of one of the users.
+	 * @param partnerName - The name of the other user.
+	 */
+	static void removePrivateChat(String userName, String partnerName) {
+		synchronized (privateChatPartners) {
+			removePrivateChatPartner(userName, partnerName);
+			removePrivateChatPartner(partnerName, userName);
+		}
+	}
+	
+	/**
+	 * A method for removing all the private chats of a user, e.g. when the user disconnects.
+	 * @param userName - The name of the user.
+	 */
+	static void removePrivateChats(String userName) {
+		synchronized (privateChatPartners) {
+			ArrayList<String> partners = privateChatPartners.remove(userName);
+			if (partners != null) {
+				for (int i = 0; i < partners.size(); i++) {
+					removePrivateChatPartner(partners.get(i), userName);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param userName - The name of the user.
+	 * @return - Returns a copy of the list of the users privately chatting with the user.
+	 */
+	static ArrayList<String> getPrivateChatPartners(String userName) {
+		synchronized (privateChatPartners) {
+			ArrayList<String> partners = privateChatPartners.get(userName);
+			return partners == null ? new ArrayList<String>() : new ArrayList<String>(partners);
+		}
+	}
+	
+	private static void addPrivateChatPartner(String userName, String partnerName) {
+		ArrayList<String> partners = privateChatPartners.get(userName);
+		if (partners == null) {
+			partners = new ArrayList<String>();
+			privateChatPartners.put(userName, partners);
+		}
+		if (!partners.contains(partnerName)) {
+			partners.add(partnerName);
+		}
+	}
+	
+	private static void removePrivateChatPartner(String userName, String partnerName) {
+		ArrayList<String> partners = privateChatPartners.get(userName);
+		if (partners != null) {
+			partners.remove(partnerName);
+			if (partners.isEmpty()) {
+				privateChatPartners.remove(userName);
+			}
+		}
+	}
+	
+	/**
+	 * A method for loading the sessions saved by the previous run of the server, so that they can be resumed
+	 * for the resumption window. The snapshot is deleted so that the tokens can be used only after this restart.
+	 */
+	static void loadSessionSnapshot() {
+		if (!sessionSnapshotFile.exists()) {
+			return;
+		}
+		try {
+			final SessionSnapshot snapshot = SessionSnapshot.read(sessionSnapshotFile);
+			sessionSnapshot = snapshot;
+			serverMessagesTextArea.append("Loaded the sessions of the previous run, they can be resumed for " + resumptionWindowMillis / 1000 + " seconds \n");
+			
+			//Schedule the end of the resumption window, replacing the one of an earlier restart
+			if (resumptionTimer != null) {
+				resumptionTimer.cancel();
+			}
+			resumptionTimer = new Timer(true);
+			resumptionTimer.schedule(new TimerTask() {
+				public void run() {
+					expireSessionSnapshot(snapshot);
+				}
+			}, resumptionWindowMillis);
+		} catch (IOException e) {
+			serverMessagesTextArea.append("Could not load the sessions of the previous run \n");
+			e.printStackTrace();
+		}
+		sessionSnapshotFile.delete();
+	}
+	
+	/**
+	 * A method for ending the resumption window, closing the private chats with the users that did not come back
+	 * and sending a single update of the online list (as the resumed users did not announce themselves).
+	 * @param snapshot - The snapshot of the sessions to be expired.
+	 */
+	private static void expireSessionSnapshot(SessionSnapshot snapshot) {
+		ArrayList<SessionSnapshot.Session> unclaimedSessions = snapshot.expire();
+		sessionSnapshot = null;
+		serverMessagesTextArea.append(unclaimedSessions.size() + " sessions of the previous run have not been resumed \n");
+		
+		//Loop for all the sessions which have not been resumed
+		for (int i = 0; i < unclaimedSessions.size(); i++) {
+			ArrayList<String> partners = unclaimedSessions.get(i).getPrivateChatPartners();
+			//Loop for all the users that were privately chatting with the user that has not come back
+			for (int j = 0; j < partners.size(); j++) {
+				Transport partnerTransport = getTransport(partners.get(j));
+				//If the partner is online, announce him the closure of the private chat
+				if (partnerTransport != null) {
+					Frame frame = bufferPool.acquireFrame().appendLine("close private chat").appendLine(unclaimedSessions.get(i).getUserName());
+					partnerTransport.send(frame);
+					frame.release();
+				}
+			}
+		}
+		ServerThread.updateOnlineList();
+		//Give the buffers cached by the timer's thread back to the pool, since the thread ends with the resumption window
+		bufferPool.flushThreadCache();
+	}
+	
+	/**
+	 * A method for disconnecting all currently online users from the server. The users are notified and closed
+	 * in parallel, and the ones that couldn't be closed before the shutdown deadline are closed forcibly. Each user
+	 * is handed a resumption token for the sessions saved in the session snapshot.
 	 */
 	//A method for disconnecting all currently online users from the server
-	private static void disconnectAllUsersFromServer() throws IOException {
-		serverMessagesTextArea.append("Disconnecting " + usersNamesArrayList.size() + " users." + "\n");
-		//Loop for all the users names within the array list
-		for (int i = 0; i < usersNamesArrayList.size(); i++) {
-			System.out.println("Sending server shut down message to user: " + usersNamesArrayList.get(i));
-			//Initialise a temporary network output for sending messages to currently looped user name (i.e. the position of the user name in array list will always match
-			//the position of its socket in the sockets array list)
-			PrintWriter tempNetworkOutput = new PrintWriter(socketsArrayList.get(i).getOutputStream(),true);
-			serverMessagesTextArea.append("Disconnecting user named: " + usersNamesArrayList.get(i) + "\n");
-			//Send a message to the currently looped user that the server is shutting down, with the type of server response
-			tempNetworkOutput.println("server shutting down");
-			//Close the currently looped user's socket
-			socketsArrayList.get(i).close();
-			//Remove the userName from the array list
-			usersNamesArrayList.remove(i);
-			//Remove the user's socket from the array list
-			socketsArrayList.remove(i);
-			//Decrement the index, since the size of array list has just been decremented by one
-			i--;
-			tempNetworkOutput.flush();
+	static void disconnectAllUsersFromServer() {
+		//Take all the users out of the array lists, so that no more messages are routed to them
+		final ArrayList<String> userNames = new ArrayList<String>();
+		final ArrayList<Transport> transports;
+		synchronized (usersNamesArrayList) {
+			transports = copyUsers(userNames);
+			usersNamesArrayList.clear();
+			transportsArrayList.clear();
+		}
+		serverMessagesTextArea.append("Disconnecting " + userNames.size() + " users." + "\n");
+		
+		//Save the sessions, so that they can be resumed after the restart
+		SessionSnapshot snapshot = new SessionSnapshot();
+		final ArrayList<SessionSnapshot.Session> sessions = new ArrayList<SessionSnapshot.Session>();
+		for (int i = 0; i < userNames.size(); i++) {
+			sessions.add(snapshot.addSession(userNames.get(i), getPrivateChatPartners(userNames.get(i))));
+		}
+		boolean snapshotSaved = false;
+		try {
+			snapshot.write(sessionSnapshotFile);
+			snapshotSaved = true;
+		} catch (IOException e) {
+			serverMessagesTextArea.append("Could not save the sessions, the users won't be able to resume them." + "\n");
+			e.printStackTrace();
+		}
+		synchronized (privateChatPartners) {
+			privateChatPartners.clear();
+		}
+		
+		if (userNames.isEmpty()) {
+			return;
+		}
+		final boolean handOutTokens = snapshotSaved;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(shutdownThreads, userNames.size()));
+		//Loop for all the users names
+		for (int i = 0; i < userNames.size(); i++) {
+			final int index = i;
+			executor.execute(new Runnable() {
+				public void run() {
+					System.out.println("Sending server shut down message to user: " + userNames.get(index));
+					//Send the user the resumption token and the server response type that the server is shutting down
+					Frame frame = bufferPool.acquireFrame();
+					if (handOutTokens) {
+						frame.appendLine("resumption token").appendLine(sessions.get(index).getToken());
+					}
+					frame.appendLine("server shutting down");
+					transports.get(index).send(frame);
+					frame.release();
+					try {
+						//Close the user's transport
+						transports.get(index).close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					//Give the buffers cached by this worker back to the pool, since the workers end with the shutdown
+					bufferPool.flushThreadCache();
+				}
+			});
 		}
+		executor.shutdown();
+		
+		try {
+			//Wait for all the users to be closed, but no longer than the deadline
+			if (!executor.awaitTermination(shutdownDeadlineMillis, TimeUnit.MILLISECONDS)) {
+				serverMessagesTextArea.append("Not all users could be notified before the deadline, closing them forcibly." + "\n");
+				executor.shutdownNow();
+				//Close all the transports, which unblocks the sends stuck on a user that doesn't read
+				for (int i = 0; i < transports.size(); i++) {
+					try {
+						transports.get(i).close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		serverMessagesTextArea.append("Disconnected " + userNames.size() + " users." + "\n");
 	}//End of disconnectAllUsersFromServer method
 	
 	/**
@@ -274,14 +664,22 @@ public class ServerMain {
     			} else { //If the socket doesn't exist
     				try {
     					System.out.println("Creating the socket");
-    					//Create the socket
-						serverSocket = new ServerSocket(portNumber);
+    					//Create the socket from a channel, so that the accepted links can be written with the pooled direct buffers
+						serverSocket = ServerSocketChannel.open().socket();
+						serverSocket.bind(new InetSocketAddress(portNumber));
     				} catch (IOException e1) {
 						JOptionPane.showMessageDialog(window, "Can't attach to the port number " + portNumber, "Port error", JOptionPane.ERROR_MESSAGE);
 						System.exit(1);
 					}
     				
 					serverMessagesTextArea.append("Started the server \n");
+					//Load the sessions of the previous run, if the server has been restarted
+					loadSessionSnapshot();
+					//Start indexing the chat history, unless it has been started by the previous start of the server
+					if (chatHistory == null) {
+						chatHistory = new ChatHistory(chatHistoryFile);
+						chatHistory.start();
+					}
 
 					//If the user wants automatically scrolled server messages text area
 				    if (automaticScrolling) {
@@ -323,6 +721,8 @@ public class ServerMain {
 						System.out.println("setting serverSocket to null");
 						serverSocket = null;
 						serverMessagesTextArea.append("Stopped the server. \n");
+						serverMessagesTextArea.append("Buffer pool statistics - " + bufferPool + "\n");
+						serverMessagesTextArea.append("Compression statistics - " + FrameCompressor.getStatistics() + "\n");
 						
 						//Set the startServerButton to enabled, since the server is not running
 						startServerButton.setEnabled(true);
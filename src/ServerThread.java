@@ -1,7 +1,6 @@
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -9,23 +8,31 @@ import javax.swing.JTextArea;
 
 
 public class ServerThread implements Runnable {
-	private Socket link;
+	private Transport transport;
 	private String userName;
+	private RateLimiter rateLimiter;
+	private SessionSnapshot.Session resumedSession;
+	//The time (from ServerEvents.nanoTime()) when the request being dispatched has been read and the time spent since then
+	//waiting for its arguments from the client, so that the flight recorder event separates the wait from the dispatch
+	private long requestStartNanos;
+	private long argumentsWaitNanos;
 	private JFrame window;
 	private JTextArea serverMessagesTextArea;
-	private Scanner networkInput;
-	private PrintWriter networkOutput;
 	
 	/**
 	 * Constructor for the class ServerThread
-	 * @param link - The link Socket between the Server and Client.
+	 * @param transport - The Transport between the Server and Client.
 	 * @param userName - The username of the client.
+	 * @param rateLimiter - The flood protection of the client's requests.
+	 * @param resumedSession - The session from before the restart of the server resumed by the client, null for a new connection.
 	 * @param window - The JFrame of the server window.
 	 * @param area - the JTextArea of the server messages area.
 	 */
-	public ServerThread(Socket link, String userName, JFrame window, JTextArea area) {
-		this.link = link;
+	public ServerThread(Transport transport, String userName, RateLimiter rateLimiter, SessionSnapshot.Session resumedSession, JFrame window, JTextArea area) {
+		this.transport = transport;
 		this.userName = userName;
+		this.rateLimiter = rateLimiter;
+		this.resumedSession = resumedSession;
 		this.window = window;
 		serverMessagesTextArea = area;
 		
@@ -44,185 +51,203 @@ public class ServerThread implements Runnable {
 	@Override
 	public void run() {
 		
-		try {
-			//Create the PrintWriter for this thread's link, for sending messages to its client
-			networkOutput = new PrintWriter(link.getOutputStream(),true);
-		} catch (IOException e) {
-			
-			e.printStackTrace();
-		}
-		
-		try {
+		//If the client has resumed its session from before the restart
+		if (resumedSession != null) {
+			//Call the method to resume the session, without announcing the user to the others
+			resumeSession();
+		} else {
 			//Call the method to announce the user connection to all connected users, including him
 			announceUserConnection();
-		} catch (IOException e1) {
-			JOptionPane.showMessageDialog(window, "Failed to announce user (" + userName + ") connection.", "announceUserConnection error", JOptionPane.ERROR_MESSAGE);
-			e1.printStackTrace();
 		}
 		
 		try {
-			//Create network input scanner for incoming messages from the client
-			networkInput = new Scanner (link.getInputStream());
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(window, "Failed to create networkInput", "InputStream error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
-		}
-		
-		//Loop while the input has a message
-		while (networkInput.hasNext()) {
-			//Obtain the next line of message and store it in userRequest variable
-			String clientRequest = networkInput.nextLine();
-			System.out.println("userRequest = " + clientRequest);
-			serverMessagesTextArea.append("User " +  userName + " has sent a request for: " + clientRequest + "\n");
+			//Loop while the input has a message
+			while (transport.hasNext()) {
+				//Obtain the next line of message and store it in userRequest variable
+				String clientRequest = transport.nextLine();
+				//Begin the flight recorder event of the request (null if the events are disabled) and time the wait for its arguments
+				Object requestEvent = ServerEvents.beginRequest();
+				requestStartNanos = ServerEvents.nanoTime();
+				argumentsWaitNanos = 0;
+			
+				//Obtain the type of the request, if it is one of the limited requests
+				RateLimiter.RequestType requestType = RateLimiter.RequestType.of(clientRequest);
+				//If the user has exceeded the limit of this request type, reject the request before performing any action
+				if (requestType != null && !rateLimiter.tryAcquire(requestType)) {
+					rejectRequest(requestType);
+					endRequestEvent(requestEvent, clientRequest, true);
+					continue;
+				}
+				System.out.println("userRequest = " + clientRequest);
+				serverMessagesTextArea.append("User " +  userName + " has sent a request for: " + clientRequest + "\n");
 			
-			//If the user requested a disconnection
-			if (clientRequest.equals("disconnect")) {
-				//Call the method to disconnect user from this thread
-				disconnectUser();
+				//If the user requested a disconnection
+				if (clientRequest.equals("disconnect")) {
+					//Call the method to disconnect user from this thread
+					disconnectUser();
 				
-				try {
 					//Call the method to update the online list
 					updateOnlineList();
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(window, "Failed to update the online list", "Update online list error", JOptionPane.ERROR_MESSAGE);
-					e.printStackTrace();
-				}
-			} else if (clientRequest.equals("private chat")) { //If the request is to initiate a private chat
-				//Obtain the name of the user to be communicated with for private chat
-				String userNameToChatWith = networkInput.nextLine();
-				serverMessagesTextArea.append(userName + " has requested to privately chat with " + userNameToChatWith + "\n");
-				//If the user wants automatically scrolled server messages text area
-		    	if (ServerMain.automaticScrolling) {
-		    		//Automatically scroll the serverMessagesTextArea to the bottom for the user.
-		    		serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
-		    	}
+				} else if (clientRequest.equals("private chat")) { //If the request is to initiate a private chat
+					//Obtain the name of the user to be communicated with for private chat
+					String userNameToChatWith = readArgument();
+					serverMessagesTextArea.append(userName + " has requested to privately chat with " + userNameToChatWith + "\n");
+					//If the user wants automatically scrolled server messages text area
+			    	if (ServerMain.automaticScrolling) {
+			    		//Automatically scroll the serverMessagesTextArea to the bottom for the user.
+			    		serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
+			    	}
 				
-				try {
 					sendRequestForPrivateChat(userNameToChatWith);
-				} catch (IOException e) {
-					networkOutput.println("Could not request the user " + userNameToChatWith + " for a private chat.");
-					networkOutput.flush();
-					e.printStackTrace();
-				}
-			} else if (clientRequest.equals("decline private chat")) { //If the request is to decline a private chat
+				} else if (clientRequest.equals("decline private chat")) { //If the request is to decline a private chat
 				
-				//Obtain the name of the user that initially requested this user for a private chat
-				String userNameToDecline = networkInput.nextLine();
-				declinePrivateChat(userNameToDecline);
+					//Obtain the name of the user that initially requested this user for a private chat
+					String userNameToDecline = readArgument();
+					declinePrivateChat(userNameToDecline);
 				
-			} else if (clientRequest.equals("accept private chat")) { // If the request is to accept a private chat
-				//Obtain the name of the user that initially requested this user for a private chat
-				String userNameInitialRequestor = networkInput.nextLine();
+				} else if (clientRequest.equals("accept private chat")) { // If the request is to accept a private chat
+					//Obtain the name of the user that initially requested this user for a private chat
+					String userNameInitialRequestor = readArgument();
 				
-				//Call a method to accept the private chat
-				acceptPrivateChat(userNameInitialRequestor);
+					//Call a method to accept the private chat
+					acceptPrivateChat(userNameInitialRequestor);
 				
-			} else if (clientRequest.equals("announce closure private chat")) { //If the request is to announce the closure of a private chat
-				//Obtain the name of the user that this client has privately chatted with, to announce him that the private chat is closing
-				String userToAnnounce = networkInput.nextLine();
-				//Obtain the index in users names array list of the user to be announced
-				int indexOfUserToAnnounce = ServerMain.usersNamesArrayList.indexOf(userToAnnounce);
+				} else if (clientRequest.equals("announce closure private chat")) { //If the request is to announce the closure of a private chat
+					//Obtain the name of the user that this client has privately chatted with, to announce him that the private chat is closing
+					String userToAnnounce = readArgument();
+					//Obtain the transport of the user to be announced (null if the user is not online, e.g. has not resumed the session yet)
+					Transport transportOfUserToAnnounce = ServerMain.getTransport(userToAnnounce);
 				
-				try {
-					//Create a network output for sending a response to the user to announce
-					PrintWriter networkOutputUserToAnnounce = new PrintWriter(ServerMain.socketsArrayList.get(indexOfUserToAnnounce).getOutputStream(),true);
-				    //Send a response to the user to announce, to announce him of the closure of private chat
-					networkOutputUserToAnnounce.println("close private chat");
-					//Send a response to the user to announce, with the name of the user that has closed the chat 
-					networkOutputUserToAnnounce.println(userName);
-					networkOutputUserToAnnounce.flush();
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(window, "Failed to create a PrintWriter for networkOutputUserToAnnounce", "Network output error", JOptionPane.ERROR_MESSAGE);
-					e.printStackTrace();
-				}
-			} else if (clientRequest.equals("private message")) {
-				//Obtain the name of the user to send the private message to
-				String userPrivChattingWith = networkInput.nextLine();
-				//Obtain the private message
-				String privMessage = networkInput.nextLine();
+					//If the user is online
+					if (transportOfUserToAnnounce != null) {
+						//Send a response to the user to announce, to announce him of the closure of private chat
+						//with the name of the user that has closed the chat 
+						sendResponse(transportOfUserToAnnounce, "close private chat", userName);
+					} else { //The user is not online anymore
+						sendResponse(transport, "chat room message response", "The user " + userToAnnounce + " is not online anymore, the private chat has been closed.");
+					}
+					ServerMain.removePrivateChat(userName, userToAnnounce);
+				} else if (clientRequest.equals("private message")) {
+					//Obtain the name of the user to send the private message to
+					String userPrivChattingWith = readArgument();
+					//Obtain the private message
+					String privMessage = readArgument();
 				
-				try {
 					//Call the method to send a private message
 					sendPrivateMessage(userPrivChattingWith, privMessage);
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(window, "Failed to send a message to " + userPrivChattingWith, "Private message error", JOptionPane.ERROR_MESSAGE);
-					e.printStackTrace();
-				}
-			} else if (clientRequest.equals("chat room message")) { //If the request is to send a message to all users
-				//Obtain the message and store it in message variable
-				String message = networkInput.nextLine();
+				} else if (clientRequest.equals("chat room message")) { //If the request is to send a message to all users
+					//Obtain the message and store it in message variable
+					String message = readArgument();
 				
-				try {
 					//Call the method to send message to all connected users, passing in the message
 					sendMessageToAllUsers(message);
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(window, "Failed to send messages from user: " + userName, "sendMessageToAllUsers error", JOptionPane.ERROR_MESSAGE);
-					e.printStackTrace();
-				}
-			}//End of else if (user request is message)
-		}//End of loop while the input has a message
+				} else if (clientRequest.equals("search")) { //If the request is to search the chat history
+					//Obtain the words to search for and the page of the results
+					String query = readArgument();
+					String pageLine = readArgument();
+					int page = 0;
+					try {
+						page = Math.max(0, Integer.parseInt(pageLine.trim()));
+					} catch (NumberFormatException e) {
+						//Show the first page if the page is not a number
+					}
+				
+					//Call the method to send the search results to this user
+					sendSearchResults(query, page);
+				}//End of else if (user request is message)
+			
+				endRequestEvent(requestEvent, clientRequest, false);
+			}//End of loop while the input has a message
+		} catch (NoSuchElementException e) {
+			//The client has dropped the link in the middle of a request
+		} finally {
+			//If the client has dropped the link without requesting the disconnection, remove the user the same way
+			if (disconnectUser()) {
+				updateOnlineList();
+			}
+			//Give the buffers cached by this thread back to the pool, since the thread ends with the user's session
+			ServerMain.bufferPool.flushThreadCache();
+		}
 	}//End of run() method
 	
 	/**
 	 * A method for announcing the user connection to all the online users including himself.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
 	 */
-	private synchronized void announceUserConnection() throws IOException {
+	private synchronized void announceUserConnection() {
+		//Encode the chat room message responses once, one for this user and one shared by all the other users
+		Frame ownFrame = ServerMain.bufferPool.acquireFrame().appendLine("chat room message response").appendLine("You have connected to the chat.");
+		Frame othersFrame = ServerMain.bufferPool.acquireBroadcastFrame().appendLine("chat room message response").append(userName).appendLine(" has connected to the chat.");
+		//Copy the online users, so that the others can join or leave while the responses are being sent
+		ArrayList<String> userNames = new ArrayList<String>();
+		ArrayList<Transport> transports = ServerMain.copyUsers(userNames);
 		//Loop for all the users names within the array list
-		for (int i = 0; i < ServerMain.usersNamesArrayList.size(); i++) {
-			//Initialise a temporary network output for sending messages to currently looped user name (i.e. the position of the user name in array list will always match
-			//the position of its socket in the sockets array list)
-			PrintWriter tempNetworkOutput = new PrintWriter(ServerMain.socketsArrayList.get(i).getOutputStream(),true);
-			//Send the message to the client that this is a chat room message response
-			tempNetworkOutput.println("chat room message response");
+		for (int i = 0; i < userNames.size(); i++) {
+			//Obtain the transport of currently looped user name (i.e. the position of the user name in array list will always match
+			//the position of its transport in the transports array list)
+			Transport tempTransport = transports.get(i);
 			//If the looped user name is an user within this thread
-			if (ServerMain.usersNamesArrayList.get(i) == userName) {
-				//Send the message to the user
-				tempNetworkOutput.println("You have connected to the chat.");
+			if (userNames.get(i) == userName) {
+				//Send the chat room message response to the user
+				sendToRecipient(tempTransport, userNames.get(i), ownFrame);
 			} else { //The looped user name is not within this thread
-				//Send the message to the user
-				tempNetworkOutput.println(userName + " has connected to the chat.");
+				//Send the chat room message response to the user
+				sendToRecipient(tempTransport, userNames.get(i), othersFrame);
 			}
-			tempNetworkOutput.flush();
 		}//End of loop for all users names within array list
+		ownFrame.release();
+		othersFrame.release();
 		updateOnlineList();
 	}//End of announceUserConnection method
 	
+	/**
+	 * A method for resuming the session of the user from before the restart of the server. The other users
+	 * still have this user in their online lists, so only this user is told that the session has been resumed,
+	 * and the private chats with the users that are back already are restored.
+	 */
+	private synchronized void resumeSession() {
+		sendResponse(transport, "session resumed");
+		
+		ArrayList<String> partners = resumedSession.getPrivateChatPartners();
+		//Loop for all the users this user was privately chatting with
+		for (int i = 0; i < partners.size(); i++) {
+			//If the partner is back already, restore the private chat (otherwise the partner restores it when resuming)
+			if (ServerMain.isOnline(partners.get(i))) {
+				ServerMain.addPrivateChat(userName, partners.get(i));
+			}
+		}
+	}//End of resumeSession method
+	
 	/**
 	 * A method for disconnecting the user from this thread.
 	 * This includes removing him from the ServerMain's array lists
-	 * and closing the link Socket.
+	 * and closing the transport.
+	 * @return - Returns false if the user had been removed already, e.g. by the shutdown of the server.
 	 */
-	private synchronized void disconnectUser() {
-		//Obtain the user position from the users names array list
-		int userPositionInArrayList = ServerMain.usersNamesArrayList.indexOf(userName);
-		//Remove the user's socket from the array list
-		ServerMain.socketsArrayList.remove(userPositionInArrayList);
-		//Remove the user's name from the array list
-		ServerMain.usersNamesArrayList.remove(userPositionInArrayList);
-		
-		try {
-			//Call a method to announce the user disconnection to all online users
-			announceUserDisconnection();
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(window, "Failed to announce user (" + userName + ") disconnection.", "announceUserDisconnection error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
+	private synchronized boolean disconnectUser() {
+		//Remove the user's name and transport from the array lists, unless the user has been removed already
+		if (!ServerMain.removeUser(transport)) {
+			return false;
 		}
+		//Remove the user's private chats
+		ServerMain.removePrivateChats(userName);
+		
+		//Call a method to announce the user disconnection to all online users
+		announceUserDisconnection();
 		
 		try {
-			//Close the link 
-			link.close();
+			//Close the transport 
+			transport.close();
 		} catch (IOException e) {
 			JOptionPane.showMessageDialog(window, "Failed to close the link", "Link closure error", JOptionPane.ERROR_MESSAGE);
 			e.printStackTrace();
 		}
+		return true;
 	}
 	/**
 	 * A method for announcing the user (from this thread) disconnection to all online users
 	 * including himself
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
 	 */
-	private synchronized void announceUserDisconnection() throws IOException {
+	private synchronized void announceUserDisconnection() {
 		
 		//Append the server messages text area with the information that this thread's user has disconnected.
 		serverMessagesTextArea.append("User " + userName + " has disconnected from the chat. \n");
@@ -233,88 +258,100 @@ public class ServerThread implements Runnable {
     		serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
     	}
 		
+    	//Encode the chat room message response once for all the users
+    	Frame frame = ServerMain.bufferPool.acquireBroadcastFrame().appendLine("chat room message response").append(userName).appendLine(" has disconnected from the chat.");
+    	ArrayList<String> userNames = new ArrayList<String>();
+    	ArrayList<Transport> transports = ServerMain.copyUsers(userNames);
     	//Loop for all users within the array list
-		for (int i = 0; i < ServerMain.usersNamesArrayList.size(); i++) {
-			//Initialise a temporary network output for sending messages to currently looped user name (i.e. the position of the user name in array list will always match
-			//the position of its socket in the sockets array list)
-			PrintWriter tempNetworkOutput = new PrintWriter(ServerMain.socketsArrayList.get(i).getOutputStream(),true);
-			
-			//Send a message to the client that this is a chat room message response
-			tempNetworkOutput.println("chat room message response");
-			
-			//Send the message to the currently looped user
-			tempNetworkOutput.println(userName + " has disconnected from the chat.");
-			tempNetworkOutput.flush();
+		for (int i = 0; i < userNames.size(); i++) {
+			//Send the chat room message response to the currently looped user (i.e. the position of the user name in array list will always match
+			//the position of its transport in the transports array list)
+			sendToRecipient(transports.get(i), userNames.get(i), frame);
 		}
+		frame.release();
 	}
 	/**
 	 * A method for sending a message to all users online including this client.
 	 * @param message - The message to be sent to all users.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
 	 */
-	private synchronized void sendMessageToAllUsers(String message) throws IOException {
+	private synchronized void sendMessageToAllUsers(String message) {
+		//Add the message to the searchable history
+		if (ServerMain.chatHistory != null) {
+			ServerMain.chatHistory.addRoomMessage(userName, message);
+		}
+		//Encode the chat room message responses once, one for this user and one shared by all the other users
+		//(the server response type will make the client realise that this is a message for the chat room)
+		Frame ownFrame = ServerMain.bufferPool.acquireFrame().appendLine("chat room message response").append("You said: ").appendLine(message);
+		Frame othersFrame = ServerMain.bufferPool.acquireBroadcastFrame().appendLine("chat room message response").append(userName).append(" has said: ").appendLine(message);
+		ArrayList<String> userNames = new ArrayList<String>();
+		ArrayList<Transport> transports = ServerMain.copyUsers(userNames);
 		
 		//Loop for all users within the array list
-		for (int i = 0; i < ServerMain.usersNamesArrayList.size(); i++) {
-			//Initialise a temporary network output for sending messages to currently looped user name (i.e. the position of the user name in array list will always match
-			//the position of its socket in the sockets array list)
-			PrintWriter tempNetworkOutput = new PrintWriter(ServerMain.socketsArrayList.get(i).getOutputStream(),true);
-			//Send a message to currently looped user with the server response type, that will make the client realise that this is a message for the chat room
-			tempNetworkOutput.println("chat room message response");
+		for (int i = 0; i < userNames.size(); i++) {
+			//Obtain the transport of currently looped user name (i.e. the position of the user name in array list will always match
+			//the position of its transport in the transports array list)
+			Transport tempTransport = transports.get(i);
 			
 			//If the currently looped user is the user in this thread
-			if (ServerMain.usersNamesArrayList.get(i) == userName) {
+			if (userNames.get(i) == userName) {
 				//Send a message to this user
-				tempNetworkOutput.println("You said: " + message);
+				sendToRecipient(tempTransport, userNames.get(i), ownFrame);
 			} else { //The currently looped user is not from this thread
 				//Send a message to the user
-				tempNetworkOutput.println(userName + " has said: " + message);
+				sendToRecipient(tempTransport, userNames.get(i), othersFrame);
 			}
-			tempNetworkOutput.flush();
 		}
+		ownFrame.release();
+		othersFrame.release();
 	}
 	
 	/**
 	 * A method for updating the user online list via the means of sending a message 
 	 * to all users that are online (including this client), about the the change to
-	 * the online list and sending an output of online list array.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
+	 * the online list and sending an output of online list array. The updates are sent one at a time (the method
+	 * is synchronized on the class), so that every user receives the online lists in the order they were copied.
 	 */
-	private synchronized void updateOnlineList() throws IOException {
+	static synchronized void updateOnlineList() {
+		ArrayList<String> userNames = new ArrayList<String>();
+		ArrayList<Transport> transports = ServerMain.copyUsers(userNames);
+		//Encode the message once with the server response type, that will make client realise that he needs to update the online list,
+		//and the output of users names array list (in the same format as the array list's toString())
+		Frame frame = ServerMain.bufferPool.acquireBroadcastFrame().appendLine("online list updated").append("[");
+		for (int i = 0; i < userNames.size(); i++) {
+			if (i > 0) {
+				frame.append(", ");
+			}
+			frame.append(userNames.get(i));
+		}
+		frame.appendLine("]");
 		
 		//Loop for all users within the array list
-		for (int i = 0; i < ServerMain.usersNamesArrayList.size(); i++) {
-			//Create a temporary network output for sending messages to currently looped user name (i.e. the position of the user name in array list will always match
-			//the position of its socket in the sockets array list)
-			PrintWriter tempNetworkOutput = new PrintWriter(ServerMain.socketsArrayList.get(i).getOutputStream(),true);
-					
-			//Send a message to currently looped user with the server response type, that will make client realise that he needs to update the online list and the list of currently online users.
-			tempNetworkOutput.println("online list updated");
-			//Send a message to currently looped user with the output of users names array list
-			tempNetworkOutput.println(ServerMain.usersNamesArrayList);
-			tempNetworkOutput.flush();
+		for (int i = 0; i < userNames.size(); i++) {
+			//Send the message to currently looped user (i.e. the position of the user name in array list will always match the position of its transport
+			//in the transports array list)
+			sendToRecipient(transports.get(i), userNames.get(i), frame);
 		}
+		frame.release();
 	}
 	
 	/**
 	 * A method for sending a request for private chat to a specific user.
 	 * @param userNameToChatWith - The username to privately chat with.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
 	 */
-	private synchronized void sendRequestForPrivateChat(String userNameToChatWith) throws IOException {
+	private synchronized void sendRequestForPrivateChat(String userNameToChatWith) {
+		//Obtain the transport of the user to chat with (null if the user is not online, e.g. has not resumed the session yet)
+		Transport transportOfUserToChatWith = ServerMain.getTransport(userNameToChatWith);
+		//If the user is not online anymore
+		if (transportOfUserToChatWith == null) {
+			sendResponse(transport, "chat room message response", "The user " + userNameToChatWith + " is not online anymore, can't request the private chat.");
+			return;
+		}
 		//Send a message to this thread's client, acknowledging that the request has been received.
-		networkOutput.println("You have requested to chat with " + userNameToChatWith + ", please wait till the user accepts the request.");
-		networkOutput.flush();
-		//Obtain the index of the user to chat with position in the array list
-		int indexOfUserToChatWith = ServerMain.usersNamesArrayList.indexOf(userNameToChatWith);
+		sendResponse(transport, "You have requested to chat with " + userNameToChatWith + ", please wait till the user accepts the request.");
 		
-		//Create a network output for sending response, to a client to chat with
-		PrintWriter networkOutputOfUserToChatWith = new PrintWriter(ServerMain.socketsArrayList.get(indexOfUserToChatWith).getOutputStream(),true);
-		//Send a message to the userToChatWith with the server response type, indicating the incoming request to private chat
-		networkOutputOfUserToChatWith.println("request private chat");
-		//Send a message to userToChatWith with the user name that is requesting him for a private chat
-		networkOutputOfUserToChatWith.println(userName);
-		networkOutputOfUserToChatWith.flush();
+		//Send a message to the userToChatWith with the server response type, indicating the incoming request to private chat,
+		//and the user name that is requesting him for a private chat
+		sendResponse(transportOfUserToChatWith, "request private chat", userName);
 	}
 	
 	
@@ -323,33 +360,55 @@ public class ServerThread implements Runnable {
 	 * and to this user (i.e. from this thread/the one who sent the message)
 	 * @param userPrivChattingWith - The username of the client chatting with.
 	 * @param privMessage - The private message to be send.
-	 * @throws IOException - Throws an exception in case the PrintWriter couldn't be initialised
 	 */
-	private synchronized void sendPrivateMessage(String userPrivChattingWith, String privMessage) throws IOException {
-		//Obtain an index of the user chatting with in the array list
-		int indexOfUserChattingWith = ServerMain.usersNamesArrayList.indexOf(userPrivChattingWith);
+	private synchronized void sendPrivateMessage(String userPrivChattingWith, String privMessage) {
+		//Obtain the transport of the user chatting with (null if the user is not online, e.g. has not resumed the session yet)
+		Transport transportOfUserChattingWith = ServerMain.getTransport(userPrivChattingWith);
+		//If the user is not online anymore
+		if (transportOfUserChattingWith == null) {
+			sendResponse(transport, "chat room message response", "The user " + userPrivChattingWith + " is not online anymore, the private message has not been delivered.");
+			return;
+		}
 		
-		//Create a network output for sending response, to a client chatting with
-		PrintWriter networkOutputOfUserChattingWith = new PrintWriter(ServerMain.socketsArrayList.get(indexOfUserChattingWith).getOutputStream(),true);
-		//Send a message to the userChattingWith with the server response type, indicating that a private message is incoming
-		networkOutputOfUserChattingWith.println("private message response");
-		//Send a message to userChattingWith with the user name that sent the message (i.e. the user name from this thread)
-		networkOutputOfUserChattingWith.println(userName);
-		//Send a message to userChattingWith with the user name that he's chatting with (i.e. the user name from this thread)
-		networkOutputOfUserChattingWith.println(userName);
-		//Send the private message to the client chatting with
-		networkOutputOfUserChattingWith.println(privMessage);
-		networkOutputOfUserChattingWith.flush();
+		//Send a message to the userChattingWith with the server response type, indicating that a private message is incoming,
+		//the user name that sent the message (i.e. the user name from this thread), the user name that he's chatting with
+		//(i.e. the user name from this thread) and the private message
+		sendResponse(transportOfUserChattingWith, "private message response", userName, userName, privMessage);
 		
-		//Send a message to this user with the server response type, indicating that a private message is incoming
-		networkOutput.println("private message response");
-		//Send a message to this user with the user name that sent the message (i.e. the user name from this thread)
-		networkOutput.println(userName);
-		//Send a message to this user with the user name that he's chatting with
-		networkOutput.println(userPrivChattingWith);
-		//Send the private message to this client
-		networkOutput.println(privMessage);
-		networkOutput.flush();
+		//Send a message to this user with the server response type, indicating that a private message is incoming,
+		//the user name that sent the message (i.e. the user name from this thread), the user name that he's chatting with
+		//and the private message
+		sendResponse(transport, "private message response", userName, userPrivChattingWith, privMessage);
+	}
+	
+	/**
+	 * A method for sending a page of the chat room messages containing all the words of the query to this user,
+	 * i.e. the page, the number of all the messages found, the number of the messages on the page and the messages.
+	 * @param query - The words to search for.
+	 * @param page - The page of the results, starting with 0.
+	 */
+	private void sendSearchResults(String query, int page) {
+		ChatHistory.SearchResult result;
+		try {
+			if (ServerMain.chatHistory == null) {
+				throw new IOException("The chat history has not been started");
+			}
+			result = ServerMain.chatHistory.search(query, page);
+		} catch (IOException e) {
+			e.printStackTrace();
+			sendResponse(transport, "chat room message response", "The chat history can't be searched at the moment.");
+			return;
+		}
+		
+		String[] lines = new String[4 + result.getMessages().size()];
+		lines[0] = "search results";
+		lines[1] = Integer.toString(page);
+		lines[2] = Integer.toString(result.getTotalCount());
+		lines[3] = Integer.toString(result.getMessages().size());
+		for (int i = 0; i < result.getMessages().size(); i++) {
+			lines[4 + i] = result.getMessages().get(i);
+		}
+		sendResponse(transport, lines);
 	}
 	
 	/**
@@ -359,32 +418,19 @@ public class ServerThread implements Runnable {
 	 */
 	private synchronized void acceptPrivateChat(String userNameInitialRequestor) {
 		
+		//Obtain the transport of the user that initially requested the private chat (null if the user is not online anymore)
+		Transport transportOfInitialRequestor = ServerMain.getTransport(userNameInitialRequestor);
 		//If the user is still online
-		if (ServerMain.usersNamesArrayList.contains(userNameInitialRequestor)) {
-			//Obtain the index in users names array list of the user that initially requested the private chat
-			int indexOfInitialRequestorUser = ServerMain.usersNamesArrayList.indexOf(userNameInitialRequestor);
-		
-			try {
-				//Create a network output for sending a response to the user that initially requested the chat and has been accepted
-				PrintWriter networkOutputInitialRequestorUser = new PrintWriter(ServerMain.socketsArrayList.get(indexOfInitialRequestorUser).getOutputStream(),true);
-				//Send a response to the user that initially requested the chat, to start the private chat
-				networkOutputInitialRequestorUser.println("start private chat");
-				//Send the name of the user to chat with
-				networkOutputInitialRequestorUser.println(userName);
-				networkOutputInitialRequestorUser.flush();
-			} catch (IOException e) {
-				JOptionPane.showMessageDialog(window, "Failed to create a PrintWriter for networkOutputInitialRequestorUser", "Network output error", JOptionPane.ERROR_MESSAGE);
-				e.printStackTrace();
-			}
+		if (transportOfInitialRequestor != null) {
+			//Send a response to the user that initially requested the chat and has been accepted, to start the private chat
+			//with the name of the user to chat with
+			sendResponse(transportOfInitialRequestor, "start private chat", userName);
 		
-			//Send a message to the user who accepted the chat, to start the private chat
-			networkOutput.println("start private chat");
-			//Send the name of the user to chat with
-			networkOutput.println(userNameInitialRequestor);
-			networkOutput.flush();
+			//Send a message to the user who accepted the chat, to start the private chat with the name of the user to chat with
+			sendResponse(transport, "start private chat", userNameInitialRequestor);
+			ServerMain.addPrivateChat(userName, userNameInitialRequestor);
 		} else { //The user is not online anymore
-			networkOutput.println("chat room message response");
-			networkOutput.println("The user" + userNameInitialRequestor + " is not online anymore, can't accept the private chat.");
+			sendResponse(transport, "chat room message response", "The user" + userNameInitialRequestor + " is not online anymore, can't accept the private chat.");
 		}
 	}//End of acceptPrivateChat method
 	
@@ -394,28 +440,15 @@ public class ServerThread implements Runnable {
 	 * @param userNameToDecline - The username of the client that initially requested the private chat.
 	 */
 	private synchronized void declinePrivateChat(String userNameToDecline) {
+		//Obtain the transport of the user to be declined (null if the user is not online anymore)
+		Transport transportOfUserToDecline = ServerMain.getTransport(userNameToDecline);
 		//If the user is still online
-		if (ServerMain.usersNamesArrayList.contains(userNameToDecline)) {
-			//Obtain the index in users names array list of the user to be declined
-			int indexOfUserToDecline = ServerMain.usersNamesArrayList.indexOf(userNameToDecline);
-		
-			try {
-				//Create a network output for sending a message to the user to be declined
-				PrintWriter networkOutputUserToDecline = new PrintWriter(ServerMain.socketsArrayList.get(indexOfUserToDecline).getOutputStream(),true);
-				//Send a message to the user to decline, with the server response to indicate that he has been declined
-				networkOutputUserToDecline.println("private chat declined");
-				//Send a message to the user to decline, with the name of the user that has been declined by
-				networkOutputUserToDecline.println(userName);
-				networkOutputUserToDecline.flush();
-			} catch (IOException e) {
-				JOptionPane.showMessageDialog(window, "Failed to create a PrintWriter for networkOutputUserToDecline", "Network output error", JOptionPane.ERROR_MESSAGE);
-				e.printStackTrace();
-			}
-			//Send a message to this user with the server response
-			networkOutput.println("chat room message response");
-			//Send a message to this client that he has successfully declined the private chat
-			networkOutput.println("You have declined " + userNameToDecline + " from a private chat.");
-			networkOutput.flush();
+		if (transportOfUserToDecline != null) {
+			//Send a message to the user to decline, with the server response to indicate that he has been declined
+			//and the name of the user that has been declined by
+			sendResponse(transportOfUserToDecline, "private chat declined", userName);
+			//Send a message to this client with the server response, that he has successfully declined the private chat
+			sendResponse(transport, "chat room message response", "You have declined " + userNameToDecline + " from a private chat.");
 		
 			serverMessagesTextArea.append(userName + " has declined to privately chat with " + userNameToDecline + "\n");
 			//If the user wants automatically scrolled server messages text area
@@ -424,8 +457,83 @@ public class ServerThread implements Runnable {
 				serverMessagesTextArea.setCaretPosition(serverMessagesTextArea.getDocument().getLength());
 			}
 		} else { //If the user is not online anymore
-			networkOutput.println("chat room message response");
-			networkOutput.println("The user" + userNameToDecline + " is not online anymore, can't decline the private chat.");
+			sendResponse(transport, "chat room message response", "The user" + userNameToDecline + " is not online anymore, can't decline the private chat.");
 		}
 	}//End of declinePrivateChat method
+	
+	/**
+	 * A method for rejecting a request that exceeds the limit of its type, by skipping
+	 * the rest of the request and applying the penalty of the request type.
+	 * @param requestType - The type of the rejected request.
+	 */
+	private void rejectRequest(RateLimiter.RequestType requestType) {
+		//Skip the lines following the request type, so the next line read is the next request
+		long waitStart = ServerEvents.nanoTime();
+		for (int i = 0; i < requestType.getArgumentsCount() && transport.hasNext(); i++) {
+			transport.nextLine();
+		}
+		argumentsWaitNanos += ServerEvents.nanoTime() - waitStart;
+		
+		RateLimiter.Penalty penalty = rateLimiter.getPenalty(requestType);
+		//If the user should be warned about the dropped request
+		if (penalty == RateLimiter.Penalty.WARN) {
+			sendResponse(transport, "chat room message response", "You are sending too many requests, your request has been dropped.");
+		} else if (penalty == RateLimiter.Penalty.DISCONNECT) { //If the user should be disconnected
+			serverMessagesTextArea.append("User " + userName + " is flooding the server, disconnecting the user. \n");
+			disconnectUser();
+			updateOnlineList();
+		}
+	}
+	
+	/**
+	 * A method for reading an argument of the request being dispatched, adding the time blocked waiting for it
+	 * to the arguments wait of the request.
+	 * @return - Returns the next line sent by the client.
+	 */
+	private String readArgument() {
+		long waitStart = ServerEvents.nanoTime();
+		String argument = transport.nextLine();
+		argumentsWaitNanos += ServerEvents.nanoTime() - waitStart;
+		return argument;
+	}
+	
+	/**
+	 * A method for committing the flight recorder event of the request being dispatched, splitting its duration
+	 * into the time spent waiting for the arguments and the time spent by the server dispatching it.
+	 * @param requestEvent - The event returned by ServerEvents.beginRequest().
+	 * @param clientRequest - The request type.
+	 * @param rateLimited - Whether the request has been rejected by the flood protection.
+	 */
+	private void endRequestEvent(Object requestEvent, String clientRequest, boolean rateLimited) {
+		if (ServerEvents.ENABLED) {
+			long dispatchNanos = ServerEvents.nanoTime() - requestStartNanos - argumentsWaitNanos;
+			ServerEvents.endRequest(requestEvent, clientRequest, userName, argumentsWaitNanos, dispatchNanos, rateLimited);
+		}
+	}
+	
+	/**
+	 * A method for sending a broadcast response to one of its recipients, recording how long the send was blocked.
+	 * @param recipient - The transport of the user to send the response to.
+	 * @param recipientName - The name of the user to send the response to.
+	 * @param frame - The frame of the response.
+	 */
+	private static void sendToRecipient(Transport recipient, String recipientName, Frame frame) {
+		Object event = ServerEvents.beginRecipientWrite();
+		recipient.send(frame);
+		ServerEvents.endRecipientWrite(event, recipientName, frame.length());
+	}
+	
+	/**
+	 * A method for sending a single response to one user, encoding it into a pooled frame.
+	 * @param recipient - The transport of the user to send the response to.
+	 * @param lines - The response type followed by its arguments.
+	 */
+	private void sendResponse(Transport recipient, String... lines) {
+		Frame frame = ServerMain.bufferPool.acquireFrame();
+		for (int i = 0; i < lines.length; i++) {
+			frame.appendLine(lines[i]);
+		}
+		recipient.send(frame);
+		frame.release();
+	}
 }
@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+
+/**
+ * A compact snapshot of the sessions taken when the server shuts down, i.e. the users' names,
+ * their private chats and the resumption token handed to each of them. After the restart a client presenting its token resumes its session
+ * without the presence announcements and roster broadcasts of a new connection.
+ * There is a single chat room which every user is in, so the rooms don't need to be stored.
+ */
+public class SessionSnapshot {
+	private static final int VERSION = 2;
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * A session that can be resumed.
+	 */
+	public static class Session {
+		private String userName;
+		private String token;
+		private ArrayList<String> privateChatPartners;
+
+		private Session(String userName, String token, ArrayList<String> privateChatPartners) {
+			this.userName = userName;
+			this.token = token;
+			this.privateChatPartners = privateChatPartners;
+		}
+
+		/**
+		 * @return - Returns the username of the session.
+		 */
+		public String getUserName() {
+			return userName;
+		}
+
+		/**
+		 * @return - Returns the token handed to the client for resuming the session.
+		 */
+		public String getToken() {
+			return token;
+		}
+
+		/**
+		 * @return - Returns the names of the users this user was privately chatting with.
+		 */
+		public ArrayList<String> getPrivateChatPartners() {
+			return privateChatPartners;
+		}
+	}
+
+	//The sessions which have not been resumed yet, by their tokens
+	private HashMap<String, Session> sessions = new HashMap<String, Session>();
+
+	/**
+	 * A method for adding a session to the snapshot with a new resumption token.
+	 * @param userName - The username of the session.
+	 * @param privateChatPartners - The names of the users this user is privately chatting with.
+	 * @return - Returns the added session.
+	 */
+	public synchronized Session addSession(String userName, ArrayList<String> privateChatPartners) {
+		//Create a token that can't be guessed, as it allows for taking over the user name
+		byte[] tokenBytes = new byte[16];
+		random.nextBytes(tokenBytes);
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i < tokenBytes.length; i++) {
+			token.append(Character.forDigit((tokenBytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(tokenBytes[i] & 0xF, 16));
+		}
+		Session session = new Session(userName, token.toString(), new ArrayList<String>(privateChatPartners));
+		sessions.put(session.token, session);
+		return session;
+	}
+
+	/**
+	 * A method for resuming a session, which can be done only once.
+	 * @param token - The resumption token presented by the client.
+	 * @param userName - The username presented by the client.
+	 * @return - Returns the session, or null if the token is unknown or doesn't belong to the username.
+	 */
+	public synchronized Session claim(String token, String userName) {
+		Session session = sessions.get(token);
+		if (session == null || !session.userName.equals(userName)) {
+			return null;
+		}
+		sessions.remove(token);
+		return session;
+	}
+
+	/**
+	 * A method for checking if a username is kept for a session which has not been resumed yet, so that
+	 * no other client can take the name before the user comes back.
+	 * @param userName - The username presented by the client.
+	 * @param token - The resumption token presented by the client, null if the client is not resuming a session.
+	 * @return - Returns true if a session which can still be resumed has the username, and the token is not its token.
+	 */
+	public synchronized boolean isReserved(String userName, String token) {
+		Iterator<Session> iterator = sessions.values().iterator();
+		while (iterator.hasNext()) {
+			Session session = iterator.next();
+			if (session.userName.equals(userName) && !session.token.equals(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A method for ending the resumption, so that the remaining sessions can't be resumed anymore.
+	 * @return - Returns the sessions which have not been resumed.
+	 */
+	public synchronized ArrayList<Session> expire() {
+		ArrayList<Session> unclaimedSessions = new ArrayList<Session>(sessions.values());
+		sessions.clear();
+		return unclaimedSessions;
+	}
+
+	/**
+	 * A method for writing the snapshot to a file.
+	 * @param file - The file to write the snapshot to.
+	 * @throws IOException - Throws an exception in case the file couldn't be written.
+	 */
+	public synchronized void write(File file) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(VERSION);
+			output.writeInt(sessions.size());
+			Iterator<Session> iterator = sessions.values().iterator();
+			while (iterator.hasNext()) {
+				Session session = iterator.next();
+				output.writeUTF(session.userName);
+				output.writeUTF(session.token);
+				output.writeInt(session.privateChatPartners.size());
+				for (int i = 0; i < session.privateChatPartners.size(); i++) {
+					output.writeUTF(session.privateChatPartners.get(i));
+				}
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * A method for reading a snapshot written by write(...).
+	 * @param file - The file to read the snapshot from.
+	 * @return - Returns the snapshot.
+	 * @throws IOException - Throws an exception in case the file couldn't be read or is not a snapshot.
+	 */
+	public static SessionSnapshot read(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != VERSION) {
+				throw new IOException("Unknown version of the session snapshot " + file);
+			}
+			SessionSnapshot snapshot = new SessionSnapshot();
+			int sessionsCount = input.readInt();
+			for (int i = 0; i < sessionsCount; i++) {
+				String userName = input.readUTF();
+				String token = input.readUTF();
+				int partnersCount = input.readInt();
+				ArrayList<String> privateChatPartners = new ArrayList<String>(partnersCount);
+				for (int j = 0; j < partnersCount; j++) {
+					privateChatPartners.add(input.readUTF());
+				}
+				snapshot.sessions.put(token, new Session(userName, token, privateChatPartners));
+			}
+			return snapshot;
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Scanner;
+
+
+/**
+ * The blocking socket transport, i.e. the client's link Socket with a single Scanner
+ * for the incoming lines and a single channel for writing the frames of the outgoing responses.
+ */
+public class SocketTransport implements Transport {
+	private Socket link;
+	private Scanner networkInput;
+	private WritableByteChannel networkOutput;
+	//The compressed stream negotiated by the client, null while the responses are sent as plain lines
+	private FrameCompressor compressor;
+	//Whether a write to the client has failed, after which the link is closed and the following responses are dropped
+	private boolean writeFailed = false;
+
+	/**
+	 * Constructor for the class SocketTransport
+	 * @param link - The link Socket between the Server and Client.
+	 * @throws IOException - Throws an exception in case the input or output stream of the link couldn't be obtained.
+	 */
+	public SocketTransport(Socket link) throws IOException {
+		this.link = link;
+		//Create network input scanner for incoming messages from the client
+		networkInput = new Scanner(link.getInputStream());
+		//Use the link's own channel for sending messages to its client (so the direct buffers are written without copying)
+		//or wrap its output stream if the link has been accepted without a channel
+		if (link.getChannel() != null) {
+			networkOutput = link.getChannel();
+		} else {
+			networkOutput = Channels.newChannel(link.getOutputStream());
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return networkInput.hasNext();
+	}
+
+	@Override
+	public String nextLine() {
+		return networkInput.nextLine();
+	}
+
+	@Override
+	public void send(Frame frame) {
+		//Lock the network output, so that the lines of this response are not mixed with a response sent from another thread
+		synchronized (networkOutput) {
+			//If the link has been closed (and the compressor ended) or a write has failed the response is lost
+			if (link.isClosed() || writeFailed) {
+				return;
+			}
+			try {
+				if (compressor == null) {
+					frame.writeTo(networkOutput);
+				} else {
+					compressor.write(frame, networkOutput);
+				}
+			} catch (IOException e) {
+				//The client is not reachable anymore, log it only once and close the link, which ends the reading
+				//of its ServerThread (that removes the user)
+				writeFailed = true;
+				System.out.println("Could not send a response to " + link.getRemoteSocketAddress() + ", closing the link: " + e);
+				try {
+					link.close();
+				} catch (IOException closeException) {
+					//The link is dropped anyway
+				}
+			}
+		}
+	}
+
+	@Override
+	public void enableCompression(int threshold) {
+		synchronized (networkOutput) {
+			compressor = new FrameCompressor(threshold);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		//Close the link before taking the lock, so that a send stuck on a client that doesn't read is unblocked
+		link.close();
+		synchronized (networkOutput) {
+			if (compressor != null) {
+				compressor.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A lock-free token bucket. The bucket holds up to burst tokens and is refilled with tokensPerSecond,
+ * each request takes one token. Instead of counting the tokens the bucket keeps the time at which it
+ * would be completely refilled, so taking a token is a single compare and set of that time.
+ */
+public class TokenBucket {
+	private long nanosPerToken;
+	private long burstNanos;
+	//The time (in System.nanoTime()) when the bucket will be full again
+	private AtomicLong fullAtNanos;
+
+	/**
+	 * Constructor for the class TokenBucket, the bucket starts full.
+	 * @param tokensPerSecond - The number of tokens added to the bucket each second.
+	 * @param burst - The maximum number of tokens in the bucket, i.e. the requests allowed at once.
+	 */
+	public TokenBucket(double tokensPerSecond, int burst) {
+		if (tokensPerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("The bucket needs a positive rate and a burst of at least one token");
+		}
+		nanosPerToken = (long) (1000000000L / tokensPerSecond);
+		burstNanos = nanosPerToken * burst;
+		fullAtNanos = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * A method for taking a token from the bucket.
+	 * @return - Returns true if a token was available, false if the request should be limited.
+	 */
+	public boolean tryAcquire() {
+		long now = System.nanoTime();
+		while (true) {
+			long fullAt = fullAtNanos.get();
+			//A bucket that has been full for a while is not fuller than full
+			long newFullAt = Math.max(fullAt, now) + nanosPerToken;
+			//If taking the token would take more than the burst, the bucket is empty
+			if (newFullAt - now > burstNanos) {
+				return false;
+			}
+			if (fullAtNanos.compareAndSet(fullAt, newFullAt)) {
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+import java.io.IOException;
+
+
+/**
+ * A transport carries the line based chat protocol between the server and a single client.
+ * The ServerThread and ServerMain only talk to the clients through this interface, so the
+ * routing of the messages does not depend on how the lines actually travel (i.e. a real socket
+ * or an in-memory queue used for load and concurrency tests).
+ */
+public interface Transport {
+
+	/**
+	 * A method for checking if another line has been sent by the client, blocking until
+	 * a line is available or the transport has been closed.
+	 * @return - Returns true if there is another line to be read, false once the transport is closed.
+	 */
+	boolean hasNext();
+
+	/**
+	 * A method for obtaining the next line sent by the client.
+	 * @return - Returns the next line of the client's request.
+	 */
+	String nextLine();
+
+	/**
+	 * A method for sending a whole server response (i.e. the response type followed by its arguments)
+	 * to the client. The frame of a single response is written and flushed together, so the responses
+	 * sent from different threads do not interleave. The frame stays owned by the caller, a transport
+	 * keeping it after returning has to retain it.
+	 * @param frame - The frame of the response to be sent.
+	 */
+	void send(Frame frame);
+
+	/**
+	 * A method for switching the responses sent after this call to the compressed stream of a FrameCompressor.
+	 * @param threshold - The length of the responses (in bytes) below which they are sent uncompressed.
+	 */
+	void enableCompression(int threshold);
+
+	/**
+	 * A method for closing the transport, after which the client can't be reached anymore.
+	 * @throws IOException - Throws an exception in case the underlying link couldn't be closed.
+	 */
+	void close() throws IOException;
+}